@@ -0,0 +1,136 @@
+package org.monarchinitiative.phenobfuscator.benchmark;
+
+import org.monarchinitiative.phenobfuscator.ontology.HpoIndex;
+import org.monarchinitiative.phenol.io.OntologyLoader;
+import org.phenopackets.schema.v1.Phenopacket;
+import org.phenopackets.schema.v1.core.Disease;
+import org.phenopackets.schema.v1.core.Gene;
+import org.phenopackets.schema.v1.core.Individual;
+import org.phenopackets.schema.v1.core.OntologyClass;
+import org.phenopackets.schema.v1.core.PhenotypicFeature;
+import org.phenopackets.schema.v1.core.Variant;
+import org.phenopackets.schema.v1.core.VcfAllele;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.SplittableRandom;
+
+/**
+ * Fixtures of the benchmarks: a small subset of the HPO that is bundled with the benchmarks (hp-mini.obo), and
+ * synthetic phenopackets and ClinVar records. The synthetic data are drawn with a fixed seed, so that every run
+ * measures the same input. The class is public for the benchmarks of package-private classes, which are in the
+ * package of the class they measure.
+ */
+public final class BenchmarkData {
+    public static final long SEED = 42L;
+
+    private static final String[] BASES = {"A", "C", "G", "T"};
+    private static final String[] CHROMOSOMES = {"1", "2", "3", "7", "17", "X"};
+    private static final String[] SIGNIFICANCES = {"Benign", "Likely_benign", "Uncertain_significance",
+            "Likely_pathogenic", "Pathogenic", "Pathogenic/Likely_pathogenic", "not_provided"};
+    private static final OntologyClass HOMOZYGOUS =
+            OntologyClass.newBuilder().setId("GENO:0000136").setLabel("homozygous").build();
+    private static final OntologyClass HETEROZYGOUS =
+            OntologyClass.newBuilder().setId("GENO:0000135").setLabel("heterozygous").build();
+
+    private BenchmarkData() {
+    }
+
+    /** @return the index of the bundled HPO subset */
+    static HpoIndex loadHpo() {
+        try (InputStream in = BenchmarkData.class.getResourceAsStream("/hp-mini.obo")) {
+            if (in == null) {
+                throw new IllegalStateException("Could not find hp-mini.obo on the classpath");
+            }
+            return HpoIndex.fromOntology(OntologyLoader.loadOntology(in));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @param nFeatures number of phenotypic features; every fourth one is negated
+     * @param nVariants number of variants (1: homozygous, 2: compound heterozygous)
+     * @return a phenopacket with random terms of the HPO subset and random variants
+     */
+    static Phenopacket syntheticPhenopacket(HpoIndex hpo, SplittableRandom random, int nFeatures, int nVariants) {
+        int id = random.nextInt(100000);
+        Phenopacket.Builder builder = Phenopacket.newBuilder()
+                .setId("PMID:" + id + "-proband")
+                .setSubject(Individual.newBuilder().setId("proband-" + id))
+                .addDiseases(Disease.newBuilder()
+                        .setTerm(OntologyClass.newBuilder().setId("OMIM:" + (100000 + id)).setLabel("Synthetic disease")))
+                .addGenes(Gene.newBuilder().setId("ENTREZ:" + (1000 + id % 5000)).setSymbol("GENE" + id % 5000));
+        for (int i = 0; i < nFeatures; i++) {
+            builder.addPhenotypicFeatures(PhenotypicFeature.newBuilder()
+                    .setType(hpo.randomPhenotypicAbnormality(random))
+                    .setNegated(i % 4 == 3));
+        }
+        for (int i = 0; i < nVariants; i++) {
+            String ref = BASES[random.nextInt(BASES.length)];
+            String alt = BASES[(random.nextInt(BASES.length - 1) + 1 + indexOf(ref)) % BASES.length];
+            builder.addVariants(Variant.newBuilder()
+                    .setVcfAllele(VcfAllele.newBuilder()
+                            .setGenomeAssembly("GRCh37")
+                            .setChr(CHROMOSOMES[random.nextInt(CHROMOSOMES.length - 1)])
+                            .setPos(1 + random.nextInt(200_000_000))
+                            .setRef(ref)
+                            .setAlt(alt))
+                    .setZygosity(nVariants == 1 ? HOMOZYGOUS : HETEROZYGOUS));
+        }
+        return builder.build();
+    }
+
+    private static int indexOf(String base) {
+        for (int i = 0; i < BASES.length; i++) {
+            if (BASES[i].equals(base)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException(base);
+    }
+
+    /** @return a ClinVar-like VCF record (the INFO field has CLNSIG among other keys, as in clinvar.vcf) */
+    public static String syntheticVcfLine(Random random, int id) {
+        String chr = CHROMOSOMES[random.nextInt(CHROMOSOMES.length)];
+        int pos = 1 + random.nextInt(200_000_000);
+        String ref = BASES[random.nextInt(BASES.length)];
+        String alt = random.nextInt(10) == 0 ? ref + BASES[random.nextInt(BASES.length)]
+                : BASES[(indexOf(ref) + 1 + random.nextInt(BASES.length - 1)) % BASES.length];
+        String sig = SIGNIFICANCES[random.nextInt(SIGNIFICANCES.length)];
+        return chr + "\t" + pos + "\t" + id + "\t" + ref + "\t" + alt + "\t.\t.\tALLELEID=" + (100000 + id)
+                + ";CLNDISDB=MedGen:CN169374;CLNDN=not_specified;CLNHGVS=NC_000001.10:g." + pos + ref + ">" + alt
+                + ";CLNREVSTAT=criteria_provided,_single_submitter;CLNSIG=" + sig
+                + ";CLNVC=single_nucleotide_variant;GENEINFO=GENE" + (id % 5000) + ":" + (1000 + id % 5000);
+    }
+
+    /**
+     * Write a ClinVar-like VCF file to a temporary file, which is deleted when the JVM exits.
+     * @param records number of records
+     */
+    static Path syntheticClinvarVcf(int records) {
+        Random random = new Random(SEED);
+        try {
+            Path path = Files.createTempFile("clinvar-benchmark", ".vcf");
+            path.toFile().deleteOnExit();
+            try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+                writer.write("##fileformat=VCFv4.1\n");
+                writer.write("##source=ClinVar (synthetic)\n");
+                writer.write("#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\n");
+                for (int i = 0; i < records; i++) {
+                    writer.write(syntheticVcfLine(random, i));
+                    writer.write('\n');
+                }
+            }
+            return path;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
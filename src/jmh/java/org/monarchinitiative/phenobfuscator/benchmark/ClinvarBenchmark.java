@@ -0,0 +1,85 @@
+package org.monarchinitiative.phenobfuscator.benchmark;
+
+import org.monarchinitiative.phenobfuscator.variant.ClinvarIndex;
+import org.monarchinitiative.phenobfuscator.variant.ClinvarParser;
+import org.monarchinitiative.phenobfuscator.variant.ClinvarSignificance;
+import org.monarchinitiative.phenobfuscator.variant.Variant;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.EnumSet;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing ClinVar: a single record with {@link Variant#fromVcfLine(String)}, and a synthetic ClinVar VCF file with
+ * {@link ClinvarParser} (all records, and only the pathogenic ones).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ClinvarBenchmark {
+    private static final int RECORDS = 100_000;
+    /** Number of distinct lines for {@link #fromVcfLine()}, so that the branches are not predicted perfectly. */
+    private static final int LINES = 1024;
+
+    private String[] lines;
+    private int next = 0;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(BenchmarkData.SEED);
+        lines = new String[LINES];
+        for (int i = 0; i < LINES; i++) {
+            lines[i] = BenchmarkData.syntheticVcfLine(random, i);
+        }
+    }
+
+    /** A synthetic ClinVar file with {@value #RECORDS} records. */
+    @State(Scope.Benchmark)
+    public static class VcfFile {
+        /** Number of threads of the parser (1: sequential). */
+        @Param({"1", "4"})
+        private int threads;
+
+        private String path;
+
+        @Setup
+        public void setup() {
+            path = BenchmarkData.syntheticClinvarVcf(RECORDS).toString();
+        }
+    }
+
+    @Benchmark
+    public Variant fromVcfLine() {
+        next = (next + 1) & (LINES - 1);
+        return Variant.fromVcfLine(lines[next]);
+    }
+
+    /** Load all records of the file (in files per minute). */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MINUTES)
+    public ClinvarIndex loadAll(VcfFile file) {
+        return new ClinvarParser(file.path, file.threads, EnumSet.allOf(ClinvarSignificance.class)).getIndex();
+    }
+
+    /** Load the records that are at least likely pathogenic, as with --clinvar-min-significance. */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MINUTES)
+    public ClinvarIndex loadPathogenic(VcfFile file) {
+        return new ClinvarParser(file.path, file.threads,
+                ClinvarSignificance.atLeast(ClinvarSignificance.LIKELY_PATHOGENIC)).getIndex();
+    }
+}
@@ -0,0 +1,84 @@
+package org.monarchinitiative.phenobfuscator.benchmark;
+
+import org.monarchinitiative.phenobfuscator.engine.RandomStreams;
+import org.monarchinitiative.phenobfuscator.ontology.HpoIndex;
+import org.monarchinitiative.phenobfuscator.phenopacket.PhenopacketObfuscator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.phenopackets.schema.v1.Phenopacket;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The obfuscation modes of {@link PhenopacketObfuscator}, applied to a parsed synthetic phenopacket the way the
+ * modes of Main apply them (a new obfuscator per phenopacket and mode).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ObfuscationBenchmark {
+
+    /** Number of phenotypic features of the phenopacket. */
+    @Param({"10", "50"})
+    private int features;
+
+    private HpoIndex hpo;
+    private Phenopacket phenopacket;
+
+    @Setup
+    public void setup() {
+        hpo = BenchmarkData.loadHpo();
+        phenopacket = BenchmarkData.syntheticPhenopacket(hpo, new SplittableRandom(BenchmarkData.SEED), features, 2);
+    }
+
+    /** @return the random stream of the phenopacket for a mode, derived as in Main (part of the measured cost) */
+    private static SplittableRandom random(String mode) {
+        return RandomStreams.forCase(BenchmarkData.SEED, "synthetic.json", mode);
+    }
+
+    /** NOISE_2: two random terms are added and one allele is removed. */
+    @Benchmark
+    public Phenopacket noise() {
+        return new PhenopacketObfuscator(phenopacket, hpo, 1, 0, 2, false).getObfuscation(random("noise"));
+    }
+
+    /** NOISE_2_IMPRECISION: as noise, and each term is replaced by a parent. */
+    @Benchmark
+    public Phenopacket noiseImprecision() {
+        return new PhenopacketObfuscator(phenopacket, hpo, 1, 1, 2, false).getObfuscation(random("noise_imprecision"));
+    }
+
+    /** NOISE_2_DOUBLEIMPRECISION: as noise, and each term is replaced by a grandparent. */
+    @Benchmark
+    public Phenopacket noiseDoubleImprecision() {
+        return new PhenopacketObfuscator(phenopacket, hpo, 1, 2, 2, false).getObfuscation(random("noise_double_imprecision"));
+    }
+
+    @Benchmark
+    public Phenopacket biallelic() {
+        return new PhenopacketObfuscator(phenopacket, hpo).getBiallelicObfuscation(random("biallelic"));
+    }
+
+    @Benchmark
+    public Phenopacket replacement() {
+        return new PhenopacketObfuscator(phenopacket, hpo).getObfuscationByReplacement(random("replace"));
+    }
+
+    @Benchmark
+    public Phenopacket notTermsRemoved() {
+        return new PhenopacketObfuscator(phenopacket, hpo).getObfuscationWithNotTermsRemoved();
+    }
+}
@@ -0,0 +1,83 @@
+package org.monarchinitiative.phenobfuscator.benchmark;
+
+import org.monarchinitiative.phenobfuscator.io.PhenopacketSource;
+import org.monarchinitiative.phenobfuscator.io.PhenopacketWriter;
+import org.monarchinitiative.phenobfuscator.ontology.HpoIndex;
+import org.monarchinitiative.phenobfuscator.phenopacket.PhenopacketImporter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.phenopackets.schema.v1.Phenopacket;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading and writing the JSON of a synthetic phenopacket: {@link PhenopacketImporter#fromJson(String, HpoIndex)}
+ * (file), {@link PhenopacketImporter#fromSource(PhenopacketSource, HpoIndex)} (in memory), and
+ * {@link PhenopacketWriter#toJson} (the serialization of all output formats).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PhenopacketIoBenchmark {
+
+    /** Number of phenotypic features of the phenopacket. */
+    @Param({"10", "50"})
+    private int features;
+
+    private HpoIndex hpo;
+    private Phenopacket phenopacket;
+    private String json;
+    private Path jsonFile;
+
+    @Setup
+    public void setup() throws IOException {
+        hpo = BenchmarkData.loadHpo();
+        phenopacket = BenchmarkData.syntheticPhenopacket(hpo, new SplittableRandom(BenchmarkData.SEED), features, 2);
+        json = new String(PhenopacketWriter.toJson(phenopacket, false), StandardCharsets.UTF_8);
+        jsonFile = Files.createTempFile("phenopacket-benchmark", ".json");
+        Files.write(jsonFile, json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(jsonFile);
+    }
+
+    @Benchmark
+    public Phenopacket importFromFile() {
+        return PhenopacketImporter.fromJson(jsonFile.toString(), hpo).getPhenopacket();
+    }
+
+    @Benchmark
+    public Phenopacket importFromString() {
+        return PhenopacketImporter.fromSource(PhenopacketSource.ofJson("benchmark.json", json), hpo).getPhenopacket();
+    }
+
+    @Benchmark
+    public byte[] toJson() throws IOException {
+        return PhenopacketWriter.toJson(phenopacket, false);
+    }
+
+    @Benchmark
+    public byte[] toCompactJson() throws IOException {
+        return PhenopacketWriter.toJson(phenopacket, true);
+    }
+}
@@ -0,0 +1,80 @@
+package org.monarchinitiative.phenobfuscator.variant;
+
+import org.monarchinitiative.phenobfuscator.benchmark.BenchmarkData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link VcfLineTokenizer#tokenize(ByteBuffer, int, int)} alone, without the index, so that the allocation per
+ * record of the tokenizer (which should be none) is reported by the GC profiler. The lines are in a heap buffer, as
+ * in the sequential parser, or in a direct buffer, as in the memory-mapped chunks of the parallel parser. The
+ * benchmark is in the package of the tokenizer, which is package-private.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class VcfLineTokenizerBenchmark {
+    /** Number of distinct lines, so that the branches are not predicted perfectly. */
+    private static final int LINES = 1024;
+
+    /** Whether the lines are in a direct buffer (as in a memory-mapped file) instead of a heap buffer. */
+    @Param({"false", "true"})
+    private boolean direct;
+
+    private ByteBuffer buf;
+    /** Offset of the start of each line in {@link #buf}, and the end of the last line. */
+    private int[] starts;
+    private VcfLineTokenizer all;
+    private VcfLineTokenizer pathogenic;
+    private int next = 0;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(BenchmarkData.SEED);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        starts = new int[LINES + 1];
+        for (int i = 0; i < LINES; i++) {
+            starts[i] = bytes.size();
+            byte[] line = BenchmarkData.syntheticVcfLine(random, i).getBytes(StandardCharsets.UTF_8);
+            bytes.write(line, 0, line.length);
+        }
+        starts[LINES] = bytes.size();
+        byte[] data = bytes.toByteArray();
+        buf = direct ? ByteBuffer.allocateDirect(data.length) : ByteBuffer.allocate(data.length);
+        buf.put(data);
+        all = new VcfLineTokenizer();
+        pathogenic = new VcfLineTokenizer(ClinvarSignificance.atLeast(ClinvarSignificance.LIKELY_PATHOGENIC), null);
+    }
+
+    /** Tokenize a record of any significance (all columns are scanned). */
+    @Benchmark
+    public int tokenize() {
+        next = (next + 1) & (LINES - 1);
+        return all.tokenize(buf, starts[next], starts[next + 1]) ? all.getAltEnd() : -1;
+    }
+
+    /** Tokenize a record and skip it unless it is at least likely pathogenic, as with --clinvar-min-significance. */
+    @Benchmark
+    public int tokenizePathogenic() {
+        next = (next + 1) & (LINES - 1);
+        return pathogenic.tokenize(buf, starts[next], starts[next + 1]) ? pathogenic.getAltEnd() : -1;
+    }
+}
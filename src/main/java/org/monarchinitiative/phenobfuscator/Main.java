@@ -3,28 +3,60 @@ package org.monarchinitiative.phenobfuscator;
 import com.beust.jcommander.JCommander;
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.ParameterException;
-import com.google.protobuf.util.JsonFormat;
+import com.beust.jcommander.converters.IParameterSplitter;
+import org.monarchinitiative.phenobfuscator.engine.CaseLog;
+import org.monarchinitiative.phenobfuscator.engine.ErrorPolicy;
+import org.monarchinitiative.phenobfuscator.engine.ObfuscationEngine;
+import org.monarchinitiative.phenobfuscator.engine.ObfuscationMode;
+import org.monarchinitiative.phenobfuscator.engine.RandomStreams;
+import org.monarchinitiative.phenobfuscator.io.ArchiveWriter;
+import org.monarchinitiative.phenobfuscator.io.Checkpoint;
+import org.monarchinitiative.phenobfuscator.io.Checksums;
+import org.monarchinitiative.phenobfuscator.io.OutputFormat;
+import org.monarchinitiative.phenobfuscator.io.OutputManifest;
+import org.monarchinitiative.phenobfuscator.io.PhenopacketSource;
+import org.monarchinitiative.phenobfuscator.io.PhenopacketSources;
+import org.monarchinitiative.phenobfuscator.io.PhenopacketWriter;
+import org.monarchinitiative.phenobfuscator.metrics.RunMetrics;
+import org.monarchinitiative.phenobfuscator.metrics.Stage;
+import org.monarchinitiative.phenobfuscator.ontology.HpoIndex;
+import org.monarchinitiative.phenobfuscator.ontology.HpoSnapshot;
+import org.monarchinitiative.phenobfuscator.phenopacket.PhenopacketImporter;
 import org.monarchinitiative.phenobfuscator.phenopacket.PhenopacketObfuscator;
+import org.monarchinitiative.phenobfuscator.variant.ClinvarIndex;
+import org.monarchinitiative.phenobfuscator.variant.ClinvarIndexFile;
 import org.monarchinitiative.phenobfuscator.variant.ClinvarParser;
-import org.monarchinitiative.phenobfuscator.variant.Variant;
+import org.monarchinitiative.phenobfuscator.variant.ClinvarSignificance;
+import org.monarchinitiative.phenobfuscator.variant.VariantRegions;
 import org.monarchinitiative.phenol.base.PhenolRuntimeException;
 import org.monarchinitiative.phenol.io.OntologyLoader;
 import org.monarchinitiative.phenol.ontology.data.Ontology;
 import org.phenopackets.schema.v1.Phenopacket;
+import org.phenopackets.schema.v1.core.VcfAllele;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedWriter;
 import java.io.File;
-
-import java.io.FileWriter;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
 
 /**
@@ -36,8 +68,14 @@ public class Main {
     private boolean usageHelpRequested;
     @Parameter(names = {"--hpo"},description = "path to hp.obo file",required = true)
     private String hpoPath;
-    @Parameter(names = {"-p", "--phenopacket"}, description = "path to directory with phenopacket files",required = true)
+    @Parameter(names = {"--hpo-snapshot"}, description = "path to binary HPO snapshot (created from hp.obo if missing or outdated)")
+    private String hpoSnapshotPath = null;
+    @Parameter(names = {"-p", "--phenopacket"}, description = "path to directory with phenopacket files (searched recursively), to a zip or JSONL file with phenopackets, or - to read phenopackets (one JSON per line) from stdin and write the results to stdout",required = true)
     private String phenopacketDirectoryPath=null;
+    @Parameter(names = {"--include"}, description = "glob of the phenopacket files to read, e.g. '*.json' (default) or 'cohort1/**.json'; may be repeated", splitter = NoSplitter.class)
+    private List<String> includeGlobs = new ArrayList<>();
+    @Parameter(names = {"--exclude"}, description = "glob of the phenopacket files to skip; may be repeated", splitter = NoSplitter.class)
+    private List<String> excludeGlobs = new ArrayList<>();
     @Parameter(names = {"--biallelic"}, description = "Output only recessive diseases and output one pathogenic allele only")
     private boolean biallelic = false;
     @Parameter(names = {"--n_alleles"}, description = "number of alleles to remove from phenopacket (1 or 2)")
@@ -49,6 +87,8 @@ public class Main {
     @Parameter(names = {"--double_imprecision"}, description = "use double imprecision (moves terms to a grandparent term")
     private
     boolean double_imprecision = false;
+    @Parameter(names = {"--imprecision_depth"}, description = "move terms to an ancestor K is_a edges up (comma-separated list for a sweep)")
+    private List<Integer> imprecisionDepths = new ArrayList<>();
     @Parameter(names = {"--n_noise"}, description = "number of noise terms to add")
     private
     int noise = 0;
@@ -65,17 +105,84 @@ public class Main {
     private boolean sortByMoi = false;
     @Parameter(names = {"--clinvar"}, description = "path to clinvar VCF file")
     String clinVarPath = null;
+    @Parameter(names = {"--clinvar-index"}, description = "path to binary ClinVar index (created from the VCF file if missing or outdated)")
+    private String clinvarIndexPath = null;
+    @Parameter(names = {"--clinvar-min-significance"}, description = "only use ClinVar variants at least this pathogenic (PATHOGENIC, LIKELY_PATHOGENIC, VUS, LIKELY_BENIGN, BENIGN)")
+    private ClinvarSignificance clinvarMinSignificance = null;
+    @Parameter(names = {"--clinvar-corpus-only"}, description = "only load ClinVar variants near the variants of the phenopackets")
+    private boolean clinvarCorpusOnly = false;
+    @Parameter(names = {"--trim-alleles"}, description = "trim the alleles of ClinVar and phenopacket variants to their minimal form before matching (e.g., AGA>AG matches GA>G at the next position)")
+    private boolean trimAlleles = false;
+    @Parameter(names = {"--threads"}, description = "number of phenopackets to process in parallel (and of threads that parse the ClinVar file)")
+    private int threads = 1;
+    @Parameter(names = {"--output-format"}, description = "write the phenopackets of each mode to a directory (DIR) or to a single JSONL, ZIP or TAR file")
+    private OutputFormat outputFormat = OutputFormat.DIR;
+    @Parameter(names = {"--gzip"}, description = "compress JSONL and TAR output with gzip")
+    private boolean gzip = false;
+    @Parameter(names = {"--incremental"}, description = "only process phenopackets whose input or configuration changed since the last run (recorded in " + MANIFEST_FILE + ")")
+    private boolean incremental = false;
+    @Parameter(names = {"--resume"}, description = "continue an interrupted run from " + CHECKPOINT_FILE)
+    private boolean resume = false;
+    @Parameter(names = {"--on-error"}, description = "STOP at the first phenopacket that cannot be processed, or SKIP it and list it in " + FAILURES_FILE)
+    private ErrorPolicy onError = ErrorPolicy.STOP;
+    @Parameter(names = {"--report"}, description = "path of the JSON report with the timings and throughput of the run (default: " + REPORT_FILE + "; with -p -, the report is only written if this option is given)")
+    private String reportPath = null;
+    @Parameter(names = {"--jfr"}, description = "emit a JDK Flight Recorder event for each timed stage (parse, obfuscate, write, ...)")
+    private boolean jfrEvents = false;
+    @Parameter(names = {"--seed"}, description = "seed of the random obfuscations; the same seed and input give the same output with any number of threads (default: a random seed, which is printed)")
+    private Long seed = null;
+    @Parameter(names = {"--replicates"}, description = "number of independent replicates of each random obfuscation, written to directories NAME_R1, NAME_R2, ...")
+    private int replicates = 1;
 
 
     private final static String MOI_RECESSIVE_CLINVAR = "MOI_RECESSIVE_CLINVAR";
     private final static String MOI_RECESSIVE_NO_CLINVAR = "MOI_RECESSIVE_NO_CLINVAR";
     private final static String MOI_DOMINANT_CLINVAR = "MOI_DOMINANT_CLINVAR";
     private final static String MOI_DOMINANT_NO_CLINVAR = "MOI_DOMINANT_NO_CLINVAR";
+    /** Name of the MOI sorting in the manifest (it writes to one of the four directories). */
+    private final static String MOI = "MOI";
+    /**
+     * Configuration of the copies of the original phenopackets in the manifest; the copies are keyed by their
+     * directory and only depend on the input (whether it is output by the biallelic mode).
+     */
+    private final static String ORIGINAL_COPY = "original";
 
-    private Ontology ontology=null;
+    /** Precomputed view of the HPO that is shared by all obfuscators (and threads). */
+    private HpoIndex hpoIndex=null;
 
+    private ObfuscationEngine engine;
+    /** The --seed value, or a random seed if none was given. */
+    private long runSeed;
+    /** Timings of the stages and counts of the cases of this run, written to the report at the end. */
+    private final RunMetrics metrics = new RunMetrics();
+    /** Writes the output phenopackets of all modes and counts the files that could not be written. */
+    private final PhenopacketWriter writer = new PhenopacketWriter(metrics);
+    /** If the output format is not DIR: the archive of each output directory name, in the order of creation. */
+    private final Map<String, ArchiveWriter> archives = new LinkedHashMap<>();
+    /** ClinVar variants for the MOI option; loaded at most once per run. */
+    private ClinvarIndex clinvarIndex = null;
 
-    private List<File> phenopacketFiles;
+    private PhenopacketSources phenopacketFiles;
+    /** Value of the -p option that streams the phenopackets from stdin to stdout. */
+    private static final String STDIN = "-";
+    /** Name of the streamed obfuscation in the run report. */
+    private static final String STDOUT = "stdout";
+    /** Manifest of the outputs for --incremental, in the working directory (next to the output directories). */
+    private static final String MANIFEST_FILE = "phenobfuscator-manifest.tsv";
+    /** Outputs of earlier runs, if --incremental is used. */
+    private OutputManifest manifest = null;
+    /** Part of the configuration that is shared by all modes (the HPO version and the seed), if --incremental is used. */
+    private String sharedConfiguration = null;
+    /** Configuration of the sorting by MOI as recorded in the manifest, if --incremental is used. */
+    private String moiConfiguration = null;
+    /** Log of the completed outputs, from which an interrupted run can be continued with --resume. */
+    private static final String CHECKPOINT_FILE = "phenobfuscator-checkpoint.tsv";
+    /** The phenopackets that could not be processed, with --on-error SKIP. */
+    private static final String FAILURES_FILE = "phenobfuscator-failures.tsv";
+    /** Completed outputs of the current run (null for archives, --incremental, and streaming). */
+    private Checkpoint checkpoint = null;
+    /** Default path of the run report, in the working directory (not used when streaming). */
+    private static final String REPORT_FILE = "phenobfuscator-report.json";
 
     @Parameter(names = {"--out"}, description = "name of output directory")
     private String OUTPUT_DIRECTORY = "obfuscated";
@@ -96,9 +203,63 @@ public class Main {
             System.exit(1);
         }
         obfuscator.checkInputData();
-        obfuscator.getListOfPhenopacketFiles();
-        obfuscator.ingestHpo();
-        obfuscator.obfuscate();
+        obfuscator.engine = new ObfuscationEngine(obfuscator.threads, obfuscator.onError, obfuscator.metrics);
+        try {
+            if (obfuscator.isStreaming()) {
+                // stdout only gets the phenopackets, all messages go to stderr
+                OutputStream stdout = new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 1 << 16);
+                System.setOut(System.err);
+                obfuscator.prepareRun();
+                obfuscator.ingestHpo();
+                obfuscator.stream(stdout);
+                return;
+            }
+            obfuscator.prepareRun();
+            obfuscator.findPhenopackets();
+            obfuscator.ingestHpo();
+            obfuscator.obfuscate();
+        } finally {
+            obfuscator.writeReport();
+        }
+    }
+
+    /** Enable the JFR events if requested, and choose the seed of the run (printed, so that the run can be repeated). */
+    private void prepareRun() {
+        if (jfrEvents && ! metrics.enableJfrEvents()) {
+            System.out.println("[INFO] This JVM has no Flight Recorder, so no JFR events are emitted (--jfr option)");
+        }
+        if (seed != null) {
+            runSeed = seed;
+        } else {
+            runSeed = new SplittableRandom().nextLong();
+            System.out.printf("[INFO] Random seed: %d (use --seed %d to repeat this run)\n", runSeed, runSeed);
+        }
+    }
+
+    /**
+     * @return the path of the run report, or null if no report is written: a streaming run leaves no file behind
+     * unless --report is given
+     */
+    private String getReportPath() {
+        if (reportPath != null) {
+            return reportPath;
+        }
+        return isStreaming() ? null : REPORT_FILE;
+    }
+
+    /** Write the timings of the run to the report; this is also done if the run failed. */
+    private void writeReport() {
+        String reportPath = getReportPath();
+        if (reportPath == null) {
+            return;
+        }
+        try {
+            metrics.writeReport(Paths.get(reportPath), threads);
+        } catch (IOException e) {
+            System.err.println("[ERROR] Could not write run report to " + reportPath + ": " + e.getMessage());
+            return;
+        }
+        System.out.printf("[INFO] Wrote run report to %s\n", reportPath);
     }
 
 
@@ -114,21 +275,179 @@ public class Main {
         if (phenopacketDirectoryPath == null ) {
             throw new RuntimeException("phenopacketDirectoryPath was not initialized! (-p/--phenopacket option)");
         }
+        if (threads < 1) {
+            throw new RuntimeException("Number of threads must be at least 1 (--threads option)");
+        }
+        if (imprecision && double_imprecision) {
+            throw new RuntimeException("Cannot use --imprecision and --double_imprecision options at the same time");
+        }
+        if (! imprecisionDepths.isEmpty() && (imprecision || double_imprecision)) {
+            throw new RuntimeException("Cannot use --imprecision_depth together with --imprecision or --double_imprecision");
+        }
+        for (int depth : imprecisionDepths) {
+            if (depth < 1) {
+                throw new RuntimeException("Imprecision depth must be at least 1 (--imprecision_depth option)");
+            }
+        }
+        if (clinvarCorpusOnly && clinvarIndexPath != null) {
+            throw new RuntimeException("Cannot use --clinvar-corpus-only together with --clinvar-index (corpus-specific indexes are not stored)");
+        }
+        if (clinvarMinSignificance != null && ! clinvarMinSignificance.isOnPathogenicityScale()) {
+            throw new RuntimeException("--clinvar-min-significance must be one of PATHOGENIC, LIKELY_PATHOGENIC, VUS, LIKELY_BENIGN, BENIGN");
+        }
+        if (gzip && outputFormat != OutputFormat.JSONL && outputFormat != OutputFormat.TAR) {
+            throw new RuntimeException("--gzip can only be used with --output-format JSONL or TAR");
+        }
+        if (biallelic && replaceTerms) {
+            throw new RuntimeException("[ERROR] Cannot use both --replace and --biallelic options at the same time");
+        }
+        if (incremental && (isStreaming() || outputFormat != OutputFormat.DIR)) {
+            throw new RuntimeException("--incremental can only be used with output to directories");
+        }
+        if (resume && (isStreaming() || outputFormat != OutputFormat.DIR || incremental)) {
+            throw new RuntimeException("--resume can only be used with output to directories and without --incremental");
+        }
+        if ((resume || incremental) && seed == null && ! sortByMoi) {
+            // otherwise the outputs of the earlier run were drawn with another, random seed
+            throw new RuntimeException("--resume and --incremental require --seed, so that all outputs are drawn from the same random streams");
+        }
+        if (replicates < 1) {
+            throw new RuntimeException("Number of replicates must be at least 1 (--replicates option)");
+        }
+        if (replicates > 1 && (sortByMoi || isStreaming())) {
+            throw new RuntimeException("--replicates cannot be used with --sort-by-moi or -p -");
+        }
+        if (isStreaming() && (sortByMoi || outputAllObfuscations || imprecisionDepths.size() > 1
+                || outputFormat != OutputFormat.DIR)) {
+            throw new RuntimeException("Only a single obfuscation can be streamed from stdin (-p -); cannot use --sort-by-moi, --output_all_obfuscations, several --imprecision_depth values or --output-format");
+        }
     }
 
 
     private void ingestHpo() {
-        this.ontology = OntologyLoader.loadOntology(new File(this.hpoPath));
+        RunMetrics.Timing timing = metrics.start(Stage.HPO_LOAD);
+        try {
+            loadHpo();
+        } finally {
+            timing.stop();
+        }
+    }
+
+    private void loadHpo() {
+        if (hpoSnapshotPath != null) {
+            try {
+                this.hpoIndex = HpoSnapshot.loadOrCreate(Paths.get(this.hpoPath), Paths.get(this.hpoSnapshotPath));
+            } catch (IOException e) {
+                throw new PhenolRuntimeException("Could not load HPO snapshot at " + hpoSnapshotPath + ": " + e.getMessage());
+            }
+            return;
+        }
+        Ontology ontology = OntologyLoader.loadOntology(new File(this.hpoPath));
+        this.hpoIndex = HpoIndex.fromOntology(ontology);
     }
 
 
 
 
-    private static String toJson(Phenopacket phenoPacket) throws IOException {
-        return JsonFormat.printer().print(phenoPacket);
+    /**
+     * Write the phenopacket to a file in the directory, or, if the output format is an archive, add it to the archive
+     * of the directory once all previous phenopackets have been added.
+     * @return false if the file could not be written (the error has been reported)
+     */
+    private boolean writePhenopacket(Phenopacket phenoPacket, String directory, String basename, CaseLog log)
+            throws IOException {
+        ArchiveWriter archive = archives.get(directory);
+        if (archive == null) {
+            return writer.write(phenoPacket, Paths.get(directory, basename));
+        }
+        byte[] entry;
+        RunMetrics.Timing serializeTiming = metrics.start(Stage.SERIALIZE);
+        try {
+            entry = archive.serialize(basename, phenoPacket);
+        } finally {
+            serializeTiming.stop();
+        }
+        log.defer(() -> {
+            RunMetrics.Timing writeTiming = metrics.start(Stage.WRITE);
+            try {
+                archive.add(basename, entry);
+            } finally {
+                writeTiming.stop();
+            }
+        });
+        return true;
+    }
+
+    /** Parse the JSON of a phenopacket. */
+    private Phenopacket parse(PhenopacketSource source) throws IOException {
+        return parse(source, Stage.PARSE);
+    }
+
+    /** Parse the JSON of a phenopacket, timed as the given stage. */
+    private Phenopacket parse(PhenopacketSource source, Stage stage) throws IOException {
+        RunMetrics.Timing timing = metrics.start(stage);
+        try {
+            return PhenopacketImporter.fromSource(source, this.hpoIndex).getPhenopacket();
+        } finally {
+            timing.stop();
+        }
+    }
+
+    /**
+     * Apply an obfuscation with the random stream of the phenopacket and obfuscation.
+     * @param mode the name of the mode in the run report
+     * @param source the phenopacket, whose name is part of the key of the random stream
+     */
+    private Phenopacket obfuscate(ObfuscationMode obfuscation, String mode, PhenopacketSource source,
+                                  Phenopacket original) {
+        SplittableRandom random = RandomStreams.forCase(runSeed, source.getName(), obfuscation.getConfiguration());
+        RunMetrics.Timing timing = metrics.start(Stage.OBFUSCATE, mode);
+        try {
+            return obfuscation.obfuscate(original, random);
+        } finally {
+            timing.stop();
+        }
+    }
+
+    /** Create the archive that takes the place of an output directory. */
+    private void openArchive(String name) {
+        try {
+            ArchiveWriter archive = ArchiveWriter.open(name, outputFormat, gzip);
+            archives.put(name, archive);
+            excludeFromInput(archive.getPath());
+        } catch (IOException e) {
+            throw new PhenolRuntimeException("Could not create output file for " + name + ": " + e.getMessage());
+        }
+    }
+
+    /** Finish all archives; only then do they appear under their final names. */
+    private void closeArchives() {
+        for (ArchiveWriter archive : archives.values()) {
+            try {
+                archive.close();
+            } catch (IOException e) {
+                throw new PhenolRuntimeException("Could not write " + archive.getPath() + ": " + e.getMessage());
+            }
+            System.out.printf("[INFO] Wrote %d phenopackets to %s\n", archive.getEntryCount(), archive.getPath());
+        }
+        archives.clear();
     }
 
     private String createOutputDirectory(String path) {
+        excludeFromInput(Paths.get(path));
+        if (outputFormat != OutputFormat.DIR) {
+            openArchive(path);
+            return path;
+        }
+        if (incremental || resume) {
+            // keep the outputs of the previous run
+            try {
+                Files.createDirectories(Paths.get(path));
+            } catch (IOException e) {
+                throw new PhenolRuntimeException("Could not create directory at " + path);
+            }
+            return path;
+        }
         Path p = Paths.get(path);
         if (Files.exists(p)) {
             new File(path).delete();
@@ -142,12 +461,17 @@ public class Main {
 
 
     private void obfuscate() {
-        new java.io.File(OUTPUT_DIRECTORY).mkdir();
+        if (incremental) {
+            loadManifest();
+        }
         if (sortByMoi) {
             if (this.clinVarPath == null) {
                 throw new PhenolRuntimeException("Need to pass path to ClinVar VCF file for MOI option");
             }
-            ClinvarParser parser = new ClinvarParser(this.clinVarPath);
+            if (manifest != null) {
+                this.moiConfiguration = configuration(getMoiConfiguration());
+            }
+            loadClinvar();
             OUTPUT_DIRECTORY = createOutputDirectory(MOI_RECESSIVE_CLINVAR);
             OUTPUT_DIRECTORY = createOutputDirectory(MOI_RECESSIVE_NO_CLINVAR);
             OUTPUT_DIRECTORY = createOutputDirectory(MOI_DOMINANT_CLINVAR);
@@ -156,68 +480,373 @@ public class Main {
             return;
         }
         if (outputAllObfuscations) {
-            OUTPUT_DIRECTORY = createOutputDirectory("BIALLELIC");
-            obfuscateBiallelic();
-            OUTPUT_DIRECTORY = createOutputDirectory("ALLTERMS_RANDOMIZED");
-            obfuscateByReplacement();
-            OUTPUT_DIRECTORY = createOutputDirectory("NO_NOT");
-            obfuscateByRemovingNotQueryTerms();
-            OUTPUT_DIRECTORY = createOutputDirectory("NOISE_2");
-            n_alleles = 0;
-            imprecision = false;
-            double_imprecision = false;
-            matchNoise = false;
-            noise = 2;
-            obfuscateParams();
-            OUTPUT_DIRECTORY = createOutputDirectory("NOISE_2_IMPRECISION");
-            imprecision = true;
-            double_imprecision = false;
-            matchNoise = false;
-            noise = 2;
-            obfuscateParams();
-            OUTPUT_DIRECTORY = createOutputDirectory("NOISE_2_DOUBLEIMPRECISION");
-            imprecision = false;
-            double_imprecision = true;
-            matchNoise = false;
-            noise = 2;
-            obfuscateParams();
-            OUTPUT_DIRECTORY = createOutputDirectory("REMOVE_2_ALLELES");
-            n_alleles = 2;
-            imprecision = false;
-            double_imprecision = false;
-            matchNoise = false;
-            noise = 0;
-            obfuscateParams();
-            OUTPUT_DIRECTORY = createOutputDirectory("REMOVE_2_ALLELE_NOISE_2_IMPRECISION");
-            n_alleles = 2;
-            imprecision = true;
-            double_imprecision = false;
-            matchNoise = false;
-            noise = 2;
-            obfuscateParams();
+            // every phenopacket is parsed once and then obfuscated in all of the following ways
+            List<ObfuscationMode> modes = new ArrayList<>();
+            modes.addAll(withReplicates("BIALLELIC", this::biallelicMode));
+            modes.addAll(withReplicates("ALLTERMS_RANDOMIZED", this::replacementMode));
+            modes.addAll(withReplicates("NO_NOT", this::noNotMode));
+            modes.addAll(withReplicates("NOISE_2", dir -> paramsMode(dir, 0, 0, 2, false)));
+            modes.addAll(withReplicates("NOISE_2_IMPRECISION", dir -> paramsMode(dir, 0, 1, 2, false)));
+            modes.addAll(withReplicates("NOISE_2_DOUBLEIMPRECISION", dir -> paramsMode(dir, 0, 2, 2, false)));
+            modes.addAll(withReplicates("REMOVE_2_ALLELES", dir -> paramsMode(dir, 2, 0, 0, false)));
+            modes.addAll(withReplicates("REMOVE_2_ALLELE_NOISE_2_IMPRECISION", dir -> paramsMode(dir, 2, 1, 2, false)));
+            obfuscate(modes);
+            return;
         }
 
+        if (imprecisionDepths.size() > 1) {
+            // sweep over several depths in one pass; the HPO index serves all depths
+            List<ObfuscationMode> modes = new ArrayList<>();
+            for (int depth : imprecisionDepths) {
+                modes.addAll(withReplicates(String.format("IMPRECISION_%d", depth),
+                        dir -> paramsMode(dir, n_alleles, depth, noise, matchNoise)));
+            }
+            obfuscate(modes);
+            return;
+        }
+        if (replicates > 1 && selectMode(null, false).isRandomized()) {
+            obfuscate(replicate(selectMode(OUTPUT_DIRECTORY, true)));
+            return;
+        }
+        if (outputFormat != OutputFormat.DIR) {
+            openArchive(OUTPUT_DIRECTORY);
+        } else {
+            new java.io.File(OUTPUT_DIRECTORY).mkdir();
+            excludeFromInput(Paths.get(OUTPUT_DIRECTORY));
+        }
+        obfuscate(Collections.singletonList(selectMode(OUTPUT_DIRECTORY, true)));
+    }
 
-        if (biallelic && replaceTerms) {
-            throw new RuntimeException("[ERROR] Cannot use both --replace and --biallelic options at the same time");
+    /**
+     * @param name name of the output directory
+     * @param mode creates the obfuscation for an output directory
+     * @return the obfuscation, or, with --replicates, one obfuscation per replicate if the obfuscation is random
+     */
+    private List<ObfuscationMode> withReplicates(String name, Function<String, ObfuscationMode> mode) {
+        if (replicates == 1) {
+            return Collections.singletonList(mode.apply(createOutputDirectory(name)));
         }
+        ObfuscationMode obfuscation = mode.apply(name);
+        if (! obfuscation.isRandomized()) {
+            createOutputDirectory(name);
+            return Collections.singletonList(obfuscation);
+        }
+        return replicate(obfuscation);
+    }
+
+    /**
+     * Each replicate is written to the directory of the obfuscation with the number of the replicate, e.g.
+     * NOISE_2_R01, ..., NOISE_2_R10, and has its own random stream. The phenopackets are still parsed only once.
+     * @return the replicates of the obfuscation
+     */
+    private List<ObfuscationMode> replicate(ObfuscationMode obfuscation) {
+        String format = "%s_R%0" + String.valueOf(replicates).length() + "d";
+        List<ObfuscationMode> modes = new ArrayList<>();
+        for (int i = 1; i <= replicates; i++) {
+            String dir = createOutputDirectory(String.format(format, obfuscation.getOutputDirectory(), i));
+            modes.add(obfuscation.replicate(i, dir));
+        }
+        return modes;
+    }
+
+    /**
+     * @param outputDirectory directory (or archive) for the obfuscated phenopackets
+     * @param copyOriginals whether the biallelic mode copies the original phenopackets
+     * @return the single obfuscation that was selected by the options
+     */
+    private ObfuscationMode selectMode(String outputDirectory, boolean copyOriginals) {
         if (biallelic) {
-            obfuscateBiallelic();
+            return biallelicMode(outputDirectory, copyOriginals);
         } else if (replaceTerms) {
-            obfuscateByReplacement();
+            return replacementMode(outputDirectory);
         } else if (noNot) {
-            obfuscateByRemovingNotQueryTerms();
+            return noNotMode(outputDirectory);
         } else {
-            obfuscateParams();
+            return paramsMode(outputDirectory, n_alleles, getImprecisionDepth(), noise, matchNoise);
+        }
+    }
+
+    private boolean isStreaming() {
+        return STDIN.equals(phenopacketDirectoryPath);
+    }
+
+    /**
+     * Read one phenopacket per line from stdin and write the obfuscated phenopackets to stdout, one per line and in
+     * input order. Only a few phenopackets per thread are held in memory at any time.
+     * @param stdout the stream for the phenopackets (System.out has been redirected to stderr)
+     */
+    private void stream(OutputStream stdout) {
+        ObfuscationMode mode = selectMode(null, false);
+        AtomicInteger written = new AtomicInteger();
+        engine.run(PhenopacketSource.ofJsonLines(System.in, "stdin"), (source, log) -> {
+            Phenopacket original = parse(source);
+            Phenopacket obfuscated = obfuscate(mode, STDOUT, source, original);
+            metrics.countProcessed();
+            if (obfuscated == null) {
+                return;
+            }
+            byte[] json;
+            RunMetrics.Timing serializeTiming = metrics.start(Stage.SERIALIZE);
+            try {
+                json = PhenopacketWriter.toJson(obfuscated, true);
+            } finally {
+                serializeTiming.stop();
+            }
+            log.defer(() -> {
+                RunMetrics.Timing writeTiming = metrics.start(Stage.WRITE);
+                try {
+                    stdout.write(json);
+                    stdout.write('\n');
+                } finally {
+                    writeTiming.stop();
+                }
+                written.incrementAndGet();
+                metrics.countOutput(STDOUT);
+            });
+        });
+        try {
+            stdout.flush();
+        } catch (IOException e) {
+            throw new PhenolRuntimeException("Could not write to stdout: " + e.getMessage());
+        }
+        System.err.printf("[INFO] Wrote %d phenopackets to stdout.\n", written.get());
+        recordSkipped();
+    }
+
+    /**
+     * Read and parse each phenopacket once, and write the obfuscations of all modes to the corresponding
+     * output directories.
+     * @param modes the obfuscations to be applied to each phenopacket
+     */
+    private void obfuscate(List<ObfuscationMode> modes) {
+        List<String> modeNames = new ArrayList<>();
+        List<String> modeConfigurations = new ArrayList<>();
+        for (ObfuscationMode mode : modes) {
+            modeNames.add(mode.getOutputDirectory());
+            if (mode.copiesOriginal() && ! modeNames.contains(mode.getOriginalCopyDirectory())) {
+                modeNames.add(mode.getOriginalCopyDirectory());
+            }
+            modeConfigurations.add(mode.getOutputDirectory() + "=" + mode.getConfiguration());
+        }
+        openCheckpoint(String.join("; ", modeConfigurations));
+        int n;
+        try {
+            n = engine.run(this.phenopacketFiles, (source, log) -> obfuscateCase(modes, source, log));
+        } finally {
+            closeCheckpoint();
+        }
+        System.out.printf("[INFO] Processed %d phenopackets.\n", n);
+        writer.reportFailures();
+        closeArchives();
+        saveManifest(modeNames);
+        recordSkipped();
+    }
+
+    /** Write the outputs of all modes for one phenopacket, except those that are still valid from an earlier run. */
+    private void obfuscateCase(List<ObfuscationMode> modes, PhenopacketSource source, CaseLog log) throws IOException {
+        String input = source.toString();
+        long checksum = manifest == null ? 0L : source.checksum();
+        List<ObfuscationMode> outdated = new ArrayList<>();
+        for (ObfuscationMode mode : modes) {
+            if (isCompleted(mode.getOutputDirectory(), input)) {
+                continue;
+            }
+            if (manifest == null || ! manifest.isUpToDate(mode.getOutputDirectory(), input, checksum,
+                    configuration(mode.getConfiguration()))
+                    || (mode.copiesOriginal() && ! manifest.isUpToDate(mode.getOriginalCopyDirectory(), input,
+                    checksum, configuration(ORIGINAL_COPY)))) {
+                outdated.add(mode);
+            }
+        }
+        if (outdated.isEmpty()) {
+            metrics.countSkipped();
+            return;
+        }
+        Phenopacket original = parse(source);
+        List<String> completed = new ArrayList<>();
+        for (ObfuscationMode mode : outdated) {
+            Phenopacket obfuscated = obfuscate(mode, mode.getOutputDirectory(), source, original);
+            String output = "";
+            String copy = "";
+            if (obfuscated != null) {
+                String basename = mode.getBasename(source.getName());
+                if (! writePhenopacket(obfuscated, mode.getOutputDirectory(), basename, log)) {
+                    continue;
+                }
+                metrics.countOutput(mode.getOutputDirectory());
+                output = Paths.get(mode.getOutputDirectory(), basename).toString();
+                if (mode.copiesOriginal()) {
+                    copyOriginal(source, original, mode.getOriginalCopyDirectory(), log);
+                    copy = Paths.get(mode.getOriginalCopyDirectory(), source.getName()).toString();
+                }
+            }
+            if (manifest != null) {
+                manifest.record(mode.getOutputDirectory(), input, checksum, configuration(mode.getConfiguration()),
+                        output);
+                if (mode.copiesOriginal()) {
+                    // the copy of the original is replaced or deleted along with the obfuscated phenopacket
+                    manifest.record(mode.getOriginalCopyDirectory(), input, checksum, configuration(ORIGINAL_COPY),
+                            copy);
+                }
+            }
+            completed.add(mode.getOutputDirectory());
+        }
+        metrics.countProcessed();
+        recordCompleted(completed, input, log);
+    }
+
+    /**
+     * Start the checkpoint log of this run, or continue the one of the interrupted run with --resume. Archives
+     * cannot be continued, and --incremental keeps its own manifest, so there is no checkpoint in these cases.
+     * @param modeConfiguration the modes of the run and their parameters
+     */
+    private void openCheckpoint(String modeConfiguration) {
+        if (outputFormat != OutputFormat.DIR || incremental) {
+            return;
+        }
+        Path path = Paths.get(CHECKPOINT_FILE);
+        String configuration = String.format("input=%s hpo=%s seed=%s %s", phenopacketDirectoryPath, hpoPath,
+                seedConfiguration(), modeConfiguration);
+        try {
+            if (resume) {
+                this.checkpoint = Checkpoint.resume(path, configuration);
+                System.out.printf("[INFO] Resuming run: %d outputs were already written.\n",
+                        checkpoint.getCompletedCount());
+            } else {
+                this.checkpoint = Checkpoint.create(path, configuration);
+            }
+        } catch (IOException e) {
+            throw new PhenolRuntimeException("Could not open " + CHECKPOINT_FILE + ": " + e.getMessage());
+        } catch (IllegalArgumentException e) {
+            throw new PhenolRuntimeException(e.getMessage());
+        }
+    }
+
+    private void closeCheckpoint() {
+        if (checkpoint == null) {
+            return;
+        }
+        try {
+            checkpoint.close();
+        } catch (IOException e) {
+            throw new PhenolRuntimeException("Could not write " + CHECKPOINT_FILE + ": " + e.getMessage());
+        }
+        checkpoint = null;
+    }
+
+    /** @return true if the output was written by the interrupted run that is resumed */
+    private boolean isCompleted(String mode, String input) {
+        return checkpoint != null && checkpoint.isCompleted(mode, input);
+    }
+
+    /** Add the outputs of a case to the checkpoint log once the case is complete (in input order). */
+    private void recordCompleted(List<String> modes, String input, CaseLog log) {
+        Checkpoint checkpoint = this.checkpoint;
+        if (checkpoint == null || modes.isEmpty()) {
+            return;
+        }
+        log.defer(() -> {
+            for (String mode : modes) {
+                checkpoint.add(mode, input);
+            }
+        });
+    }
+
+    /** List the phenopackets that were skipped because of errors (with --on-error SKIP) in FAILURES_FILE. */
+    private void recordSkipped() {
+        if (onError != ErrorPolicy.SKIP) {
+            return;
+        }
+        Path path = Paths.get(FAILURES_FILE);
+        List<ObfuscationEngine.CaseFailure> skipped = engine.getSkipped();
+        try {
+            if (skipped.isEmpty()) {
+                // the list of an earlier run is no longer valid
+                Files.deleteIfExists(path);
+                return;
+            }
+            try (BufferedWriter out = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+                for (ObfuscationEngine.CaseFailure failure : skipped) {
+                    String message = String.valueOf(failure.getCause().getMessage()).replaceAll("\\s+", " ");
+                    out.write(failure.getSource() + "\t" + message);
+                    out.newLine();
+                }
+            }
+        } catch (IOException e) {
+            throw new PhenolRuntimeException("Could not write " + FAILURES_FILE + ": " + e.getMessage());
+        }
+        System.err.printf("[ERROR] The phenopackets that were skipped are listed in %s\n", FAILURES_FILE);
+    }
+
+    /** Load the manifest of the previous run and the part of the configuration that all modes share. */
+    private void loadManifest() {
+        try {
+            this.sharedConfiguration = String.format("hpo=%s seed=%s",
+                    Long.toHexString(Checksums.crc32(Paths.get(this.hpoPath))), seedConfiguration());
+        } catch (IOException e) {
+            throw new PhenolRuntimeException("Could not read " + this.hpoPath + ": " + e.getMessage());
+        }
+        this.manifest = OutputManifest.load(Paths.get(MANIFEST_FILE));
+    }
+
+    /** @return the seed as recorded in the manifest and the checkpoint (sorting by MOI is not random) */
+    private String seedConfiguration() {
+        return sortByMoi ? "none" : Long.toString(runSeed);
+    }
+
+    /** @return the configuration of a mode as recorded in the manifest */
+    private String configuration(String modeConfiguration) {
+        return sharedConfiguration + " " + modeConfiguration;
+    }
+
+    /**
+     * Remove the outputs of inputs that no longer exist and write the manifest (if --incremental is used).
+     * @param modes the modes of this run
+     */
+    private void saveManifest(List<String> modes) {
+        if (manifest == null) {
+            return;
+        }
+        try {
+            int removed = manifest.removeStale(modes);
+            manifest.write();
+            System.out.printf("[INFO] %d outputs were up to date, %d outputs of removed phenopackets were deleted.\n",
+                    manifest.getSkippedCount(), removed);
+        } catch (IOException e) {
+            throw new PhenolRuntimeException("Could not update " + MANIFEST_FILE + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Copy the original file to a directory so that we can compare it with the obfuscated file. If the directory
+     * is replaced by an archive, or the original is not a file, the parsed original is written instead.
+     */
+    private void copyOriginal(PhenopacketSource source, Phenopacket original, String directory, CaseLog log)
+            throws IOException {
+        if (archives.containsKey(directory) || source.getPath() == null) {
+            writePhenopacket(original, directory, source.getName(), log);
+            return;
+        }
+        Path copy = Paths.get(directory, source.getName());
+        try {
+            // the name of a phenopacket from a subdirectory of the input contains the subdirectory
+            Files.createDirectories(copy.getParent());
+            java.nio.file.Files.copy(source.getPath(),
+                    copy,
+                    java.nio.file.StandardCopyOption.REPLACE_EXISTING,
+                    java.nio.file.StandardCopyOption.COPY_ATTRIBUTES,
+                    java.nio.file.LinkOption.NOFOLLOW_LINKS);
+        } catch(IOException e) {
+            throw new PhenolRuntimeException("Could not copy files to " + directory);
         }
     }
 
     private boolean hasClinvarPathogenic(Phenopacket originalPhenopacket,
-                                         Set<Variant> variantSet) {
+                                         ClinvarIndex clinvarIndex) {
         List<org.phenopackets.schema.v1.core.Variant> variants =  originalPhenopacket.getVariantsList();
         for (org.phenopackets.schema.v1.core.Variant v : variants) {
-            Variant var = Variant.fromPhenopacketVariant(v);
-            if (variantSet.contains(var)) {
+            VcfAllele allele = v.getVcfAllele();
+            if (clinvarIndex.contains(allele.getChr(), allele.getPos(), allele.getRef(), allele.getAlt())) {
                 return true;
             }
         }
@@ -225,60 +854,169 @@ public class Main {
     }
 
 
-    private void outputByMoi() {
-        ClinvarParser parser = new ClinvarParser(this.clinVarPath);
-        Set<Variant> variantSet = parser.getVariantSet();
-        for (java.io.File file: this.phenopacketFiles) {
-            String phenopacketAbsolutePath = file.getAbsolutePath();
-            PhenopacketObfuscator pobfuscator = new PhenopacketObfuscator(phenopacketAbsolutePath, this.ontology);
-            Phenopacket originalPhenopacket = pobfuscator.getOriginal();
-            String path2;
-            if (pobfuscator.diseaseIsAutosomalRecessive()) {
-                String basename = getNoNotObfuscatedBasename(file.getName());
-                if (hasClinvarPathogenic(originalPhenopacket, variantSet)) {
-                    path2 = String.format("%s%s%s", MOI_RECESSIVE_CLINVAR, File.separator, basename);
-                } else {
-                    path2 = String.format("%s%s%s", MOI_RECESSIVE_NO_CLINVAR, File.separator, basename);
-                }
-            } else if (pobfuscator.diseaseIsAutosomalDominant()) {
-                String basename = getNoNotObfuscatedBasename(file.getName());
-                if (hasClinvarPathogenic(originalPhenopacket, variantSet)) {
-                    path2 = String.format("%s%s%s", MOI_DOMINANT_CLINVAR, File.separator, basename);
-                } else {
-                    path2 = String.format("%s%s%s", MOI_DOMINANT_NO_CLINVAR, File.separator, basename);
-                }
-            } else {
-                System.out.println("[INFO] Skipping phenopacket " + file.getName());
-                continue;
-            }
+    /**
+     * Load the ClinVar variants, from the index file if one was given and it matches the VCF file.
+     */
+    private void loadClinvar() {
+        if (this.clinvarIndex != null) {
+            return;
+        }
+        RunMetrics.Timing timing = metrics.start(Stage.CLINVAR_LOAD);
+        try {
+            loadClinvar(clinvarMinSignificance == null
+                    ? EnumSet.allOf(ClinvarSignificance.class)
+                    : ClinvarSignificance.atLeast(clinvarMinSignificance));
+        } finally {
+            timing.stop();
+        }
+        System.out.printf("[INFO] Loaded %d ClinVar variants\n", this.clinvarIndex.size());
+    }
+
+    /** @param significances the ClinVar variants with these significances are loaded */
+    private void loadClinvar(Set<ClinvarSignificance> significances) {
+        if (this.clinvarIndexPath != null) {
             try {
-                BufferedWriter bw = new BufferedWriter(new FileWriter(path2));
-                bw.write(toJson(originalPhenopacket));
-                bw.close();
+                this.clinvarIndex = ClinvarIndexFile.loadOrCreate(Paths.get(this.clinVarPath), Paths.get(this.clinvarIndexPath),
+                        significances, trimAlleles, threads);
             } catch (IOException e) {
-                e.printStackTrace();
+                throw new PhenolRuntimeException("Could not load ClinVar index: " + e.getMessage());
+            }
+        } else if (clinvarCorpusOnly) {
+            VariantRegions regions = scanCorpusRegions();
+            System.out.printf("[INFO] Phenopacket variants are in %d regions\n", regions.countWindows());
+            if (regions.countWindows() == 0) {
+                // no phenopacket that is processed has a variant (e.g., all are up to date with --incremental)
+                this.clinvarIndex = new ClinvarIndex.Builder(trimAlleles).build();
+                return;
             }
+            this.clinvarIndex = new ClinvarParser(this.clinVarPath, threads, significances, regions, trimAlleles).getIndex();
+        } else {
+            this.clinvarIndex = new ClinvarParser(this.clinVarPath, threads, significances, null, trimAlleles).getIndex();
         }
     }
 
 
-    private void obfuscateByRemovingNotQueryTerms() {
-        for (java.io.File file: this.phenopacketFiles) {
-            String phenopacketAbsolutePath = file.getAbsolutePath();
-            PhenopacketObfuscator pobfuscator = new PhenopacketObfuscator(phenopacketAbsolutePath, this.ontology);
-            Phenopacket obfuscated = pobfuscator.getObfuscationWithNotTermsRemoved();
-            String basename = getNoNotObfuscatedBasename(file.getName());
-            String path2 = String.format("%s%s%s", OUTPUT_DIRECTORY, File.separator, basename);
+    /**
+     * Phenopackets that are up to date with --incremental are not parsed. A phenopacket that cannot be read is left
+     * out here; it fails, and is reported once, when it is processed.
+     * @return the regions around the VCF alleles of all phenopackets that are processed, so that only the relevant
+     * part of ClinVar is loaded
+     */
+    private VariantRegions scanCorpusRegions() {
+        VariantRegions.Builder regions = new VariantRegions.Builder();
+        engine.run(this.phenopacketFiles, (source, log) -> {
+            Phenopacket phenopacket;
             try {
-                BufferedWriter bw = new BufferedWriter(new FileWriter(path2));
-                bw.write(toJson(obfuscated));
-                bw.close();
-            } catch (IOException e) {
-                e.printStackTrace();
+                if (isMoiUpToDate(source.toString(), manifest == null ? 0L : source.checksum())) {
+                    return;
+                }
+                phenopacket = parse(source, Stage.CORPUS_SCAN);
+            } catch (IOException | RuntimeException e) {
+                return;
             }
+            for (org.phenopackets.schema.v1.core.Variant v : phenopacket.getVariantsList()) {
+                VcfAllele allele = v.getVcfAllele();
+                regions.add(allele.getChr(), allele.getPos());
+            }
+        });
+        return regions.build();
+    }
+
+
+    private void outputByMoi() {
+        openCheckpoint(String.format("%s clinvar=%s min_significance=%s trim_alleles=%s", MOI, clinVarPath,
+                clinvarMinSignificance, trimAlleles));
+        int n;
+        try {
+            n = engine.run(this.phenopacketFiles, this::sortCaseByMoi);
+        } finally {
+            closeCheckpoint();
+        }
+        System.out.printf("[INFO] Processed %d phenopackets.\n", n);
+        writer.reportFailures();
+        closeArchives();
+        saveManifest(Collections.singletonList(MOI));
+        recordSkipped();
+    }
+
+    /** @return true if the output of the phenopacket is still valid from an earlier run (with --incremental) */
+    private boolean isMoiUpToDate(String input, long checksum) {
+        return manifest != null && manifest.isUpToDate(MOI, input, checksum, moiConfiguration);
+    }
+
+    /** Copy one phenopacket (with the NOT terms removed) to the directory for its mode of inheritance. */
+    private void sortCaseByMoi(PhenopacketSource source, CaseLog log) throws IOException {
+        String input = source.toString();
+        long checksum = manifest == null ? 0L : source.checksum();
+        if (isCompleted(MOI, input) || isMoiUpToDate(input, checksum)) {
+            metrics.countSkipped();
+            return;
+        }
+        Phenopacket phenopacket = parse(source);
+        Phenopacket originalPhenopacket;
+        String directory;
+        RunMetrics.Timing timing = metrics.start(Stage.OBFUSCATE, MOI);
+        try {
+            PhenopacketObfuscator pobfuscator = new PhenopacketObfuscator(phenopacket, this.hpoIndex);
+            originalPhenopacket = pobfuscator.getOriginal();
+            directory = getMoiDirectory(pobfuscator, originalPhenopacket);
+        } finally {
+            timing.stop();
+        }
+        metrics.countProcessed();
+        if (directory == null) {
+            log.info("Skipping phenopacket " + source.getName());
+            if (manifest != null) {
+                manifest.record(MOI, input, checksum, moiConfiguration, "");
+            }
+            recordCompleted(Collections.singletonList(MOI), input, log);
+            return;
+        }
+        String basename = getNoNotObfuscatedBasename(source.getName());
+        if (! writePhenopacket(originalPhenopacket, directory, basename, log)) {
+            return;
+        }
+        metrics.countOutput(MOI);
+        if (manifest != null) {
+            manifest.record(MOI, input, checksum, moiConfiguration, Paths.get(directory, basename).toString());
+        }
+        recordCompleted(Collections.singletonList(MOI), input, log);
+    }
+
+    /** @return the directory for the mode of inheritance and ClinVar status of the case, or null if it is not autosomal */
+    private String getMoiDirectory(PhenopacketObfuscator pobfuscator, Phenopacket originalPhenopacket) {
+        if (pobfuscator.diseaseIsAutosomalRecessive()) {
+            if (hasClinvarPathogenic(originalPhenopacket, clinvarIndex)) {
+                return MOI_RECESSIVE_CLINVAR;
+            } else {
+                return MOI_RECESSIVE_NO_CLINVAR;
+            }
+        } else if (pobfuscator.diseaseIsAutosomalDominant()) {
+            if (hasClinvarPathogenic(originalPhenopacket, clinvarIndex)) {
+                return MOI_DOMINANT_CLINVAR;
+            } else {
+                return MOI_DOMINANT_NO_CLINVAR;
+            }
+        }
+        return null;
+    }
+
+    /** @return everything besides the input that determines into which directory a phenopacket is sorted */
+    private String getMoiConfiguration() {
+        try {
+            return String.format("moi clinvar=%s min_significance=%s trim_alleles=%s",
+                    Long.toHexString(Checksums.crc32(Paths.get(this.clinVarPath))), clinvarMinSignificance, trimAlleles);
+        } catch (IOException e) {
+            throw new PhenolRuntimeException("Could not read " + this.clinVarPath + ": " + e.getMessage());
         }
     }
 
+
+    private ObfuscationMode noNotMode(String outputDirectory) {
+        return new ObfuscationMode(outputDirectory, "no_not", false, this::getNoNotObfuscatedBasename,
+                (pp, random) -> new PhenopacketObfuscator(pp, this.hpoIndex).getObfuscationWithNotTermsRemoved());
+    }
+
     /**
      * Transform e.g., Arora-2019-COG8-proband.json to Arora-2019-COG8-proband_biallelic_obfuscated.json
      * @param bname original basename
@@ -301,41 +1039,38 @@ public class Main {
 
 
 
-    private void obfuscateBiallelic() {
+    /**
+     * Only autosomal recessive cases are output in this mode. The original files of these cases are
+     * copied to BIALLELIC_NON_OBFUSCATED.
+     */
+    private ObfuscationMode biallelicMode(String outputDirectory) {
+        return biallelicMode(outputDirectory, true);
+    }
+
+    /** @param copyOriginals if false, the original files are not copied (e.g., when streaming) */
+    private ObfuscationMode biallelicMode(String outputDirectory, boolean copyOriginals) {
         String dir = "BIALLELIC_NON_OBFUSCATED";
-        File directory = new File(dir);
-        if (! directory.exists()) {
-            directory.mkdir();
-        }
-        for (java.io.File file: this.phenopacketFiles) {
-            String phenopacketAbsolutePath = file.getAbsolutePath();
-            PhenopacketObfuscator pobfuscator = new PhenopacketObfuscator(phenopacketAbsolutePath, this.ontology);
-            if (pobfuscator.diseaseIsAutosomalRecessive()) {
-                Phenopacket obfuscated = pobfuscator.getBiallelicObfuscation();
-                String basename = getBiallelicObfuscatedBasename(file.getName());
-                String path2 = String.format("%s%s%s", OUTPUT_DIRECTORY, File.separator, basename);
-                try {
-                    BufferedWriter bw = new BufferedWriter(new FileWriter(path2));
-                    bw.write(toJson(obfuscated));
-                    bw.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-                // Now copy oringal file to the NON_OBFUSCATED directory so we can compare
-                String pathOrigFileCopy = String.format("%s%s%s", directory.getAbsolutePath(),File.separator,file.getName() );
-                try {
-                    java.nio.file.Files.copy(new File(phenopacketAbsolutePath).toPath(),
-                            new File(pathOrigFileCopy).toPath(),
-                            java.nio.file.StandardCopyOption.REPLACE_EXISTING,
-                            java.nio.file.StandardCopyOption.COPY_ATTRIBUTES,
-                            java.nio.file.LinkOption.NOFOLLOW_LINKS);
-                } catch(IOException e) {
-                    e.printStackTrace();
-                    System.err.println("Could not copy files to " + directory.getAbsolutePath());
-                    System.exit(1);
-                }
+        String originalCopyDirectory;
+        if (! copyOriginals) {
+            originalCopyDirectory = null;
+        } else if (outputFormat != OutputFormat.DIR) {
+            openArchive(dir);
+            originalCopyDirectory = dir;
+        } else {
+            File directory = new File(dir);
+            if (! directory.exists()) {
+                directory.mkdir();
             }
+            excludeFromInput(directory.toPath());
+            originalCopyDirectory = directory.getAbsolutePath();
         }
+        // random if there are two (compound heterozygous) variants
+        return new ObfuscationMode(outputDirectory, "biallelic", true, this::getBiallelicObfuscatedBasename,
+                (pp, random) -> {
+                    PhenopacketObfuscator pobfuscator = new PhenopacketObfuscator(pp, this.hpoIndex);
+                    return pobfuscator.diseaseIsAutosomalRecessive() ? pobfuscator.getBiallelicObfuscation(random) : null;
+                },
+                originalCopyDirectory);
     }
 
     /**
@@ -344,7 +1079,7 @@ public class Main {
      */
     private String [] getFileNameComponents(String bname){
         int i = bname.lastIndexOf('.');
-        if (i < 0 ) {
+        if (i < 0 || i < bname.lastIndexOf('/')) {
             String e = String.format("Malformed phenopacket basename (no \".\"): %s",bname );
             throw new RuntimeException(e);
         }
@@ -367,39 +1102,33 @@ public class Main {
     /**
      * Replace all of the original HPO terms by random terms but leave everything else unchanged.
      */
-    private void obfuscateByReplacement() {
-        for (java.io.File file: this.phenopacketFiles) {
-            String phenopacketAbsolutePath = file.getAbsolutePath();
-            PhenopacketObfuscator pobfuscator = new PhenopacketObfuscator(phenopacketAbsolutePath, this.ontology);
-            Phenopacket obfuscated = pobfuscator.getObfuscationByReplacement();
-            String basename = getReplacementObfuscatedBasename(file.getName());
-            String path2 = String.format("%s%s%s", OUTPUT_DIRECTORY, File.separator, basename);
-            try {
-                BufferedWriter bw = new BufferedWriter(new FileWriter(path2));
-                bw.write(toJson(obfuscated));
-                bw.close();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-        }
+    private ObfuscationMode replacementMode(String outputDirectory) {
+        return new ObfuscationMode(outputDirectory, "replace", true, this::getReplacementObfuscatedBasename,
+                (pp, random) -> new PhenopacketObfuscator(pp, this.hpoIndex).getObfuscationByReplacement(random));
     }
 
 
-    private void obfuscateParams() {
-        for (java.io.File file: this.phenopacketFiles) {
-            String phenopacketAbsolutePath = file.getAbsolutePath();
-            PhenopacketObfuscator pobfuscator = new PhenopacketObfuscator(phenopacketAbsolutePath, this.ontology, n_alleles, imprecision, double_imprecision, noise, matchNoise);
-            Phenopacket obfuscated = pobfuscator.getObfuscation();
-            String basename = file.getName();
-            String path2 = String.format("%s%s%s",OUTPUT_DIRECTORY, File.separator, basename);
-            try {
-                BufferedWriter bw = new BufferedWriter(new FileWriter(path2));
-                bw.write(toJson(obfuscated));
-                bw.close();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+    private ObfuscationMode paramsMode(String outputDirectory, int n_alleles, int imprecisionDepth,
+                                       int noise, boolean matchNoise) {
+        String configuration = String.format("params n_alleles=%d imprecision=%d noise=%d match_noise=%s",
+                n_alleles, imprecisionDepth, noise, matchNoise);
+        // noise terms and ancestors are random, and so is the retained allele of compound heterozygous cases
+        boolean randomized = noise > 0 || matchNoise || imprecisionDepth > 0 || n_alleles == 1;
+        return new ObfuscationMode(outputDirectory, configuration, randomized, basename -> basename,
+                (pp, random) -> new PhenopacketObfuscator(pp, this.hpoIndex, n_alleles, imprecisionDepth, noise, matchNoise)
+                        .getObfuscation(random));
+    }
+
+    /** @return the imprecision depth given by --imprecision, --double_imprecision or a single --imprecision_depth */
+    private int getImprecisionDepth() {
+        if (! imprecisionDepths.isEmpty()) {
+            return imprecisionDepths.get(0);
+        } else if (double_imprecision) {
+            return 2;
+        } else if (imprecision) {
+            return 1;
         }
+        return 0;
     }
 
 
@@ -409,22 +1138,34 @@ public class Main {
 
 
 
-    private void getListOfPhenopacketFiles() {
-        phenopacketFiles = new ArrayList<>();
-        final File folder = new File(phenopacketDirectoryPath);
-        if (! folder.isDirectory()) {
-            throw new PhenolRuntimeException("Could not open Phenopackets directory at "+phenopacketDirectoryPath);
+    /**
+     * Set up the enumeration of the input phenopackets; the input is only read when the phenopackets are processed.
+     */
+    private void findPhenopackets() {
+        try {
+            this.phenopacketFiles = new PhenopacketSources(Paths.get(phenopacketDirectoryPath), includeGlobs, excludeGlobs);
+        } catch (IllegalArgumentException e) {
+            throw new PhenolRuntimeException(e.getMessage());
         }
-        int counter=0;
-        for (final File fileEntry : folder.listFiles()) {
-            if (fileEntry.isFile() && fileEntry.getAbsolutePath().endsWith(".json")) {
-                logger.info("\tPhenopacket: \"{}\"", fileEntry.getAbsolutePath());
-                //System.out.println(++counter + ") "+ fileEntry.getName());
-                this.phenopacketFiles.add(fileEntry);
-                counter++;
-            }
+        excludeFromInput(Paths.get(getReportPath()));
+    }
+
+    /**
+     * Keep an output of this run out of the input, in case the input directory contains the working directory.
+     * The input is only enumerated while it is processed, so outputs may still be excluded when they are created.
+     */
+    private void excludeFromInput(Path output) {
+        if (phenopacketFiles != null) {
+            phenopacketFiles.exclude(output);
+        }
+    }
+
+    /** Globs may contain commas (e.g., {@code *.{json,pp}}), so the values of --include and --exclude are not split. */
+    public static class NoSplitter implements IParameterSplitter {
+        @Override
+        public List<String> split(String value) {
+            return Collections.singletonList(value);
         }
-        System.out.printf("[INFO] Added %d phenopackets.\n",counter);
     }
 
 }
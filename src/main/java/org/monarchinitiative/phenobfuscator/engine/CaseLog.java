@@ -0,0 +1,47 @@
+package org.monarchinitiative.phenobfuscator.engine;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects the messages of a single case so that they can be printed in the order of the input files
+ * even if the cases themselves are processed in parallel. Output that must also be written in input order
+ * (e.g., entries of an archive) can be deferred in the same way.
+ */
+public class CaseLog {
+
+    private final List<String> messages = new ArrayList<>();
+    private final List<Output> deferred = new ArrayList<>();
+
+    public void info(String message) {
+        messages.add("[INFO] " + message);
+    }
+
+    /**
+     * @param output work that is done on the thread that collects the results, in the order of the input files,
+     * once the case has been processed
+     */
+    public void defer(Output output) {
+        deferred.add(output);
+    }
+
+    void printTo(PrintStream out) {
+        for (String m : messages) {
+            out.println(m);
+        }
+    }
+
+    void writeDeferred() throws IOException {
+        for (Output output : deferred) {
+            output.write();
+        }
+    }
+
+    /** Output of a case that is written in input order. */
+    @FunctionalInterface
+    public interface Output {
+        void write() throws IOException;
+    }
+}
@@ -0,0 +1,20 @@
+package org.monarchinitiative.phenobfuscator.engine;
+
+import org.monarchinitiative.phenobfuscator.io.PhenopacketSource;
+
+/**
+ * The work that is done for a single phenopacket (parse, obfuscate, serialize and write).
+ * Implementations are called concurrently from several worker threads if the {@link ObfuscationEngine}
+ * uses more than one thread. Any state that is shared between cases (e.g., the run metrics, the manifest or the
+ * checkpoint) must therefore be thread-safe; output that has to be written in input order, or by a single thread,
+ * is handed to {@link CaseLog#defer(CaseLog.Output)} instead.
+ */
+@FunctionalInterface
+public interface CaseTask {
+    /**
+     * @param source the phenopacket to be processed
+     * @param log messages for this case; they are printed in input order once the case is done
+     * @throws Exception if the case could not be processed
+     */
+    void process(PhenopacketSource source, CaseLog log) throws Exception;
+}
@@ -0,0 +1,11 @@
+package org.monarchinitiative.phenobfuscator.engine;
+
+/**
+ * What the {@link ObfuscationEngine} does if a phenopacket cannot be processed (e.g., because it is not valid JSON).
+ */
+public enum ErrorPolicy {
+    /** Start no new cases, finish the running ones, and then abort the run. */
+    STOP,
+    /** Report the phenopacket, remember it in {@link ObfuscationEngine#getSkipped()}, and continue with the next one. */
+    SKIP
+}
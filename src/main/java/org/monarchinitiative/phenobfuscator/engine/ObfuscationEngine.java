@@ -0,0 +1,229 @@
+package org.monarchinitiative.phenobfuscator.engine;
+
+import org.monarchinitiative.phenol.base.PhenolRuntimeException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.monarchinitiative.phenobfuscator.io.PhenopacketSource;
+import org.monarchinitiative.phenobfuscator.metrics.RunMetrics;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Applies a {@link CaseTask} to each phenopacket. The phenopackets are taken from an iterator as they are needed,
+ * so that a stream of any length can be processed. With one thread, the phenopackets are processed on the
+ * calling thread exactly as before. With more threads, the cases are fanned out over a fixed pool of
+ * workers. At most a few cases per worker are in flight at any time, and the results are collected in
+ * input order, so that the log output does not depend on the number of threads.
+ * Output that a case defers with {@link CaseLog#defer(CaseLog.Output)} is written on the calling thread in input
+ * order as well. If a case fails, no new cases are started; the cases that are already running are completed and
+ * all errors are reported together. With {@link ErrorPolicy#SKIP}, a case that fails is reported and skipped
+ * instead, and the run continues.
+ */
+public class ObfuscationEngine {
+    private static final Logger logger = LoggerFactory.getLogger(ObfuscationEngine.class);
+    /** Number of cases that may be queued per worker thread. */
+    private static final int CASES_PER_THREAD = 4;
+
+    private final int nThreads;
+    private final ErrorPolicy errorPolicy;
+    /** Counts the cases that failed. */
+    private final RunMetrics metrics;
+    /** The cases that failed and were skipped in the last run. */
+    private final List<CaseFailure> skipped = new ArrayList<>();
+
+    public ObfuscationEngine(int nThreads) {
+        this(nThreads, ErrorPolicy.STOP);
+    }
+
+    public ObfuscationEngine(int nThreads, ErrorPolicy errorPolicy) {
+        this(nThreads, errorPolicy, new RunMetrics());
+    }
+
+    public ObfuscationEngine(int nThreads, ErrorPolicy errorPolicy, RunMetrics metrics) {
+        if (nThreads < 1) {
+            throw new PhenolRuntimeException("Number of threads must be at least 1 but was " + nThreads);
+        }
+        this.nThreads = nThreads;
+        this.errorPolicy = errorPolicy;
+        this.metrics = metrics;
+    }
+
+    /** @return the phenopackets that could not be processed in the last run (only with {@link ErrorPolicy#SKIP}) */
+    public List<CaseFailure> getSkipped() {
+        return Collections.unmodifiableList(skipped);
+    }
+
+    /**
+     * Process all phenopackets with the task
+     * @param sources phenopackets in the order in which they should be reported
+     * @param task the per-case work
+     * @return the number of phenopackets that were processed
+     */
+    public int run(Iterable<PhenopacketSource> sources, CaseTask task) {
+        return run(sources.iterator(), task);
+    }
+
+    /**
+     * Process all phenopackets with the task
+     * @param sources phenopackets in the order in which they should be reported; no more than a few phenopackets
+     *                per thread are taken from the iterator before they have been processed
+     * @param task the per-case work
+     * @return the number of phenopackets that were processed
+     */
+    public int run(Iterator<PhenopacketSource> sources, CaseTask task) {
+        List<CaseFailure> failures = new ArrayList<>();
+        skipped.clear();
+        int started;
+        if (nThreads == 1) {
+            started = 0;
+            while (sources.hasNext()) {
+                CaseResult result = processCase(sources.next(), task);
+                started++;
+                complete(result, failures);
+                if (! failures.isEmpty()) {
+                    break;
+                }
+            }
+        } else {
+            started = runParallel(sources, task, failures);
+        }
+        if (! failures.isEmpty()) {
+            reportFailures(failures, started);
+        }
+        if (! skipped.isEmpty()) {
+            System.err.printf("[ERROR] Skipped %d of %d phenopackets that could not be processed.\n",
+                    skipped.size(), started);
+        }
+        return started;
+    }
+
+    /** @return the number of cases that were started */
+    private int runParallel(Iterator<PhenopacketSource> sources, CaseTask task, List<CaseFailure> failures) {
+        ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+        int maxInFlight = nThreads * CASES_PER_THREAD;
+        Deque<Future<CaseResult>> inFlight = new ArrayDeque<>();
+        int started = 0;
+        try {
+            while (sources.hasNext()) {
+                if (! failures.isEmpty()) {
+                    break;
+                }
+                PhenopacketSource source = sources.next();
+                inFlight.addLast(executor.submit(() -> processCase(source, task)));
+                started++;
+                if (inFlight.size() >= maxInFlight) {
+                    collect(inFlight.removeFirst(), failures);
+                }
+            }
+            while (! inFlight.isEmpty()) {
+                collect(inFlight.removeFirst(), failures);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return started;
+    }
+
+    private void collect(Future<CaseResult> future, List<CaseFailure> failures) {
+        CaseResult result;
+        try {
+            result = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PhenolRuntimeException("Interrupted while waiting for phenopacket to be processed");
+        } catch (ExecutionException e) {
+            // processCase catches all exceptions, so this can only be an Error
+            throw new PhenolRuntimeException("Unexpected error while processing phenopacket: " + e.getCause());
+        }
+        complete(result, failures);
+    }
+
+    private static CaseResult processCase(PhenopacketSource source, CaseTask task) {
+        CaseLog log = new CaseLog();
+        try {
+            task.process(source, log);
+            return new CaseResult(source, log, null);
+        } catch (Exception e) {
+            // the failure is reported once, in input order, by complete(); the stack trace is only for debugging
+            logger.debug("Could not process phenopacket {}", source, e);
+            return new CaseResult(source, log, new CaseFailure(source, e));
+        }
+    }
+
+    /**
+     * Print the messages of a case and write its deferred output, or handle its failure according to the error
+     * policy; called in input order.
+     * @param failures the failures that stop the run
+     */
+    private void complete(CaseResult result, List<CaseFailure> failures) {
+        result.log.printTo(System.out);
+        if (result.failure == null) {
+            try {
+                result.log.writeDeferred();
+            } catch (IOException e) {
+                // the output (e.g., an archive) cannot be continued
+                throw new PhenolRuntimeException("Could not write output of phenopacket " + result.source.getName()
+                        + ": " + e.getMessage());
+            }
+            return;
+        }
+        metrics.recordFailure(result.source.toString());
+        if (errorPolicy == ErrorPolicy.SKIP) {
+            System.err.printf("[ERROR] Skipping %s: %s\n", result.source.getName(), result.failure.cause.getMessage());
+            skipped.add(result.failure);
+        } else {
+            failures.add(result.failure);
+        }
+    }
+
+    private static void reportFailures(List<CaseFailure> failures, int total) {
+        System.err.printf("[ERROR] Could not process %d of %d phenopackets.\n", failures.size(), total);
+        for (CaseFailure f : failures) {
+            System.err.printf("[ERROR] %s: %s\n", f.source.getName(), f.cause.getMessage());
+        }
+        throw new PhenolRuntimeException("Could not process " + failures.size() + " phenopacket(s), first error: "
+                + failures.get(0).cause.getMessage());
+    }
+
+    private static class CaseResult {
+        private final PhenopacketSource source;
+        private final CaseLog log;
+        private final CaseFailure failure;
+
+        CaseResult(PhenopacketSource source, CaseLog log, CaseFailure failure) {
+            this.source = source;
+            this.log = log;
+            this.failure = failure;
+        }
+    }
+
+    /** A phenopacket that could not be processed. */
+    public static class CaseFailure {
+        private final PhenopacketSource source;
+        private final Exception cause;
+
+        CaseFailure(PhenopacketSource source, Exception cause) {
+            this.source = source;
+            this.cause = cause;
+        }
+
+        public PhenopacketSource getSource() {
+            return source;
+        }
+
+        public Exception getCause() {
+            return cause;
+        }
+    }
+}
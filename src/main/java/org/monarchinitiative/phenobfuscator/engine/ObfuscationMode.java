@@ -0,0 +1,94 @@
+package org.monarchinitiative.phenobfuscator.engine;
+
+import org.phenopackets.schema.v1.Phenopacket;
+
+import java.util.SplittableRandom;
+import java.util.function.BiFunction;
+import java.util.function.UnaryOperator;
+
+/**
+ * One kind of obfuscation, together with the directory to which the obfuscated phenopackets are written.
+ * Several modes can be applied to a phenopacket that was parsed only once.
+ */
+public class ObfuscationMode {
+    /** Name of the directory to which the obfuscated phenopackets are written. */
+    private final String outputDirectory;
+    /** The kind of obfuscation and its parameters, used to recognize outputs that can be reused. */
+    private final String configuration;
+    /** Whether the obfuscation uses its random stream, i.e., whether replicates differ. */
+    private final boolean randomized;
+    /** Maps the basename of the input file to the basename of the obfuscated file. */
+    private final UnaryOperator<String> basename;
+    /** Returns the obfuscated phenopacket, or null if the phenopacket is not output in this mode. */
+    private final BiFunction<Phenopacket, SplittableRandom, Phenopacket> obfuscation;
+    /** If not null, the input files of all phenopackets that are output are also copied to this directory. */
+    private final String originalCopyDirectory;
+
+    public ObfuscationMode(String outputDirectory,
+                           String configuration,
+                           boolean randomized,
+                           UnaryOperator<String> basename,
+                           BiFunction<Phenopacket, SplittableRandom, Phenopacket> obfuscation) {
+        this(outputDirectory, configuration, randomized, basename, obfuscation, null);
+    }
+
+    public ObfuscationMode(String outputDirectory,
+                           String configuration,
+                           boolean randomized,
+                           UnaryOperator<String> basename,
+                           BiFunction<Phenopacket, SplittableRandom, Phenopacket> obfuscation,
+                           String originalCopyDirectory) {
+        this.outputDirectory = outputDirectory;
+        this.configuration = configuration;
+        this.randomized = randomized;
+        this.basename = basename;
+        this.obfuscation = obfuscation;
+        this.originalCopyDirectory = originalCopyDirectory;
+    }
+
+    public String getOutputDirectory() {
+        return outputDirectory;
+    }
+
+    /** @return a description of the obfuscation and its parameters, e.g. "params n_alleles=1 imprecision=0 ..." */
+    public String getConfiguration() {
+        return configuration;
+    }
+
+    public boolean isRandomized() {
+        return randomized;
+    }
+
+    /**
+     * @param replicate number of the replicate, starting at 1
+     * @param outputDirectory directory (or archive) of the replicate
+     * @return the same obfuscation with the random stream of the replicate. The first replicate has the stream of
+     * this mode, and only the first replicate copies the original files.
+     */
+    public ObfuscationMode replicate(int replicate, String outputDirectory) {
+        String replicateConfiguration = replicate == 1 ? configuration : configuration + " replicate=" + replicate;
+        return new ObfuscationMode(outputDirectory, replicateConfiguration, randomized, basename, obfuscation,
+                replicate == 1 ? originalCopyDirectory : null);
+    }
+
+    public String getBasename(String inputBasename) {
+        return basename.apply(inputBasename);
+    }
+
+    /**
+     * @param original the phenopacket as read from the input file (is not changed)
+     * @param random the random stream of this phenopacket and mode, see {@link RandomStreams}
+     * @return the obfuscated phenopacket, or null if the phenopacket is skipped in this mode
+     */
+    public Phenopacket obfuscate(Phenopacket original, SplittableRandom random) {
+        return obfuscation.apply(original, random);
+    }
+
+    public boolean copiesOriginal() {
+        return originalCopyDirectory != null;
+    }
+
+    public String getOriginalCopyDirectory() {
+        return originalCopyDirectory;
+    }
+}
@@ -0,0 +1,47 @@
+package org.monarchinitiative.phenobfuscator.engine;
+
+import java.util.SplittableRandom;
+
+/**
+ * Derives an independent random stream for each obfuscation of each phenopacket from the seed of the run. The stream
+ * only depends on the seed, the name of the phenopacket and the obfuscation, so that the output is the same in every
+ * run with the same seed, regardless of the number of threads and of the order in which the cases are processed.
+ * No random state is shared between threads.
+ */
+public final class RandomStreams {
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private RandomStreams() {
+    }
+
+    /**
+     * @param seed the seed of the run
+     * @param caseName the name of the phenopacket (e.g., the basename of its file)
+     * @param mode the configuration of the obfuscation, see {@link ObfuscationMode#getConfiguration()}
+     * @return the random stream for this obfuscation of this phenopacket
+     */
+    public static SplittableRandom forCase(long seed, String caseName, String mode) {
+        long key = mix(seed ^ hash(caseName));
+        key = mix(key ^ hash(mode));
+        return new SplittableRandom(key);
+    }
+
+    /** 64-bit FNV-1a hash of the chars (String.hashCode has too few bits, and its collisions are easy to hit). */
+    private static long hash(String s) {
+        long h = FNV_OFFSET;
+        for (int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= FNV_PRIME;
+        }
+        return h;
+    }
+
+    /** The finalizer of MurmurHash3, so that similar names give unrelated seeds. */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return z ^ (z >>> 33);
+    }
+}
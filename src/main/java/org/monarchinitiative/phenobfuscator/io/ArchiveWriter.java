@@ -0,0 +1,239 @@
+package org.monarchinitiative.phenobfuscator.io;
+
+import com.google.protobuf.MessageOrBuilder;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.UUID;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes the phenopackets of one obfuscation mode to a single JSONL, zip or tar file (optionally gzip-compressed)
+ * instead of one file per phenopacket. The entries of zip and tar files are named after the files that would
+ * otherwise have been written, and have no timestamps, so that the same input gives the same archive.
+ * <p>
+ * {@link #serialize(String, MessageOrBuilder)} is thread-safe and can be called by the workers, whereas
+ * {@link #add(String, byte[])} must be called by one thread in the order in which the entries should appear. The
+ * archive is written to a temporary file that is renamed by {@link #close()}, so that no partial archive is ever
+ * visible.
+ */
+public abstract class ArchiveWriter implements Closeable {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final Path path;
+    private final Path tmp;
+    /** The (buffered and possibly compressed) stream of the temporary file. */
+    protected final OutputStream out;
+    private int entries = 0;
+
+    private ArchiveWriter(Path path, boolean gzip) throws IOException {
+        this.path = path;
+        this.tmp = path.toAbsolutePath().getParent().resolve(path.getFileName() + "." + UUID.randomUUID() + ".tmp");
+        OutputStream file = Files.newOutputStream(tmp);
+        this.out = gzip ? new GZIPOutputStream(file, BUFFER_SIZE) : new BufferedOutputStream(file, BUFFER_SIZE);
+    }
+
+    /**
+     * @param name the name of the mode (file name without extension)
+     * @param format JSONL, ZIP or TAR
+     * @param gzip whether a JSONL or tar file is compressed (adds .gz to the file name)
+     * @return a writer for the file {@code name} + extension of the format
+     * @throws IOException if the file cannot be created
+     */
+    public static ArchiveWriter open(String name, OutputFormat format, boolean gzip) throws IOException {
+        Path path = Paths.get(name + format.getExtension() + (gzip ? ".gz" : ""));
+        switch (format) {
+            case JSONL:
+                return new JsonLinesWriter(path, gzip);
+            case ZIP:
+                if (gzip) {
+                    throw new IllegalArgumentException("Zip files cannot be compressed with gzip");
+                }
+                return new ZipWriter(path);
+            case TAR:
+                return new TarWriter(path, gzip);
+            default:
+                throw new IllegalArgumentException("Not an archive format: " + format);
+        }
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /** @return number of entries that were added */
+    public int getEntryCount() {
+        return entries;
+    }
+
+    /**
+     * @param name name of the entry
+     * @param message a phenopacket
+     * @return the bytes of the entry (by default, the JSON as it would be written to a file)
+     * @throws IOException if the message cannot be serialized
+     */
+    public byte[] serialize(String name, MessageOrBuilder message) throws IOException {
+        return PhenopacketWriter.toJson(message, false);
+    }
+
+    /**
+     * @param name name of the entry
+     * @param entry bytes returned by {@link #serialize(String, MessageOrBuilder)}
+     * @throws IOException if the archive cannot be written
+     */
+    public void add(String name, byte[] entry) throws IOException {
+        writeEntry(name, entry);
+        entries++;
+    }
+
+    protected abstract void writeEntry(String name, byte[] entry) throws IOException;
+
+    /** Write whatever the format needs after the last entry. */
+    protected void finish() throws IOException {
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+            out.close();
+        } catch (IOException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * One phenopacket per line, in the same format as the JSONL input and the output to stdout, so that the file can
+     * be read again with {@code -p}. The lines carry no entry names.
+     */
+    private static class JsonLinesWriter extends ArchiveWriter {
+
+        JsonLinesWriter(Path path, boolean gzip) throws IOException {
+            super(path, gzip);
+        }
+
+        @Override
+        public byte[] serialize(String name, MessageOrBuilder message) throws IOException {
+            return PhenopacketWriter.toJson(message, true);
+        }
+
+        @Override
+        protected void writeEntry(String name, byte[] entry) throws IOException {
+            out.write(entry);
+            out.write('\n');
+        }
+    }
+
+    private static class ZipWriter extends ArchiveWriter {
+        private final ZipOutputStream zip;
+
+        ZipWriter(Path path) throws IOException {
+            super(path, false);
+            this.zip = new ZipOutputStream(out, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        protected void writeEntry(String name, byte[] entry) throws IOException {
+            ZipEntry zipEntry = new ZipEntry(name);
+            // no timestamp from the clock, so that the archive does not depend on when it was written
+            zipEntry.setTime(0L);
+            zip.putNextEntry(zipEntry);
+            zip.write(entry);
+            zip.closeEntry();
+        }
+
+        @Override
+        protected void finish() throws IOException {
+            zip.finish();
+        }
+    }
+
+    /**
+     * Tar file in the GNU format, which supports entry names of more than 100 bytes.
+     */
+    private static class TarWriter extends ArchiveWriter {
+        private static final int BLOCK = 512;
+        private static final int NAME_LENGTH = 100;
+        private static final byte REGULAR_FILE = '0';
+        private static final byte LONG_NAME = 'L';
+
+        TarWriter(Path path, boolean gzip) throws IOException {
+            super(path, gzip);
+        }
+
+        @Override
+        protected void writeEntry(String name, byte[] entry) throws IOException {
+            byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+            if (nameBytes.length > NAME_LENGTH) {
+                // the next entry gets the name in this pseudo-entry (NUL-terminated)
+                byte[] longName = new byte[nameBytes.length + 1];
+                System.arraycopy(nameBytes, 0, longName, 0, nameBytes.length);
+                writeHeader("././@LongLink".getBytes(StandardCharsets.US_ASCII), longName.length, LONG_NAME);
+                writeData(longName);
+            }
+            writeHeader(nameBytes, entry.length, REGULAR_FILE);
+            writeData(entry);
+        }
+
+        private void writeHeader(byte[] name, long size, byte type) throws IOException {
+            byte[] header = new byte[BLOCK];
+            System.arraycopy(name, 0, header, 0, Math.min(name.length, NAME_LENGTH));
+            putOctal(header, 100, 8, 0644);
+            putOctal(header, 108, 8, 0);
+            putOctal(header, 116, 8, 0);
+            putOctal(header, 124, 12, size);
+            putOctal(header, 136, 12, 0);
+            header[156] = type;
+            byte[] magic = "ustar  ".getBytes(StandardCharsets.US_ASCII);
+            System.arraycopy(magic, 0, header, 257, magic.length);
+            // the checksum is computed with the checksum field filled with spaces
+            for (int i = 148; i < 156; i++) {
+                header[i] = ' ';
+            }
+            long checksum = 0;
+            for (byte b : header) {
+                checksum += b & 0xff;
+            }
+            putOctal(header, 148, 7, checksum);
+            out.write(header);
+        }
+
+        /** Write the value as zero-padded octal digits, followed by NUL. */
+        private static void putOctal(byte[] header, int offset, int length, long value) {
+            String octal = Long.toOctalString(value);
+            int digits = length - 1;
+            if (octal.length() > digits) {
+                throw new IllegalArgumentException("Value too large for tar header: " + value);
+            }
+            for (int i = 0; i < digits; i++) {
+                int j = i - (digits - octal.length());
+                header[offset + i] = j < 0 ? (byte) '0' : (byte) octal.charAt(j);
+            }
+            header[offset + digits] = 0;
+        }
+
+        private void writeData(byte[] data) throws IOException {
+            out.write(data);
+            int padding = (BLOCK - data.length % BLOCK) % BLOCK;
+            out.write(new byte[padding]);
+        }
+
+        @Override
+        protected void finish() throws IOException {
+            // two empty blocks mark the end of the archive
+            out.write(new byte[2 * BLOCK]);
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package org.monarchinitiative.phenobfuscator.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads a BGZF file (a series of independent gzip members of at most 64 KB, as written by bgzip for VCF files).
+ * Because the blocks are independent, they are read sequentially but inflated in parallel on a small pool of
+ * threads. The blocks are returned in file order, and at most {@code BLOCKS_PER_THREAD} blocks per thread are
+ * in flight at any time.
+ */
+class BgzfInputStream extends InputStream {
+    private static final int BLOCKS_PER_THREAD = 4;
+    /** Length of the fixed part of the gzip header, up to and including XLEN. */
+    private static final int HEADER_LENGTH = 12;
+    /** Length of the gzip trailer (CRC32 and ISIZE). */
+    private static final int TRAILER_LENGTH = 8;
+    /** Maximum size of a block, compressed or inflated. */
+    private static final int MAX_BLOCK_SIZE = 1 << 16;
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(() -> new Inflater(true));
+
+    private final InputStream in;
+    /** Null if the blocks are inflated on the reading thread. */
+    private final ExecutorService executor;
+    private final ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>();
+    private final int window;
+    private byte[] block = new byte[0];
+    private int position = 0;
+    private boolean endOfInput = false;
+
+    /**
+     * @param in the compressed data (should be buffered)
+     * @param threads number of threads used to inflate blocks
+     */
+    BgzfInputStream(InputStream in, int threads) {
+        this.in = in;
+        this.window = threads * BLOCKS_PER_THREAD;
+        if (threads > 1) {
+            this.executor = Executors.newFixedThreadPool(threads, r -> {
+                Thread t = new Thread(r, "bgzf-inflater");
+                t.setDaemon(true);
+                return t;
+            });
+        } else {
+            this.executor = null;
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (! fill()) {
+            return -1;
+        }
+        return block[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (! fill()) {
+            return -1;
+        }
+        int n = Math.min(len, block.length - position);
+        System.arraycopy(block, position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return block.length - position;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        in.close();
+    }
+
+    /** @return false if there is no more data */
+    private boolean fill() throws IOException {
+        while (position == block.length) {
+            while (! endOfInput && pending.size() < window) {
+                byte[] raw = readRawBlock();
+                if (raw == null) {
+                    endOfInput = true;
+                } else if (executor == null) {
+                    pending.add(CompletableFuture.completedFuture(inflate(raw)));
+                } else {
+                    pending.add(executor.submit(() -> inflate(raw)));
+                }
+            }
+            if (pending.isEmpty()) {
+                return false;
+            }
+            block = next(pending.poll());
+            position = 0;
+        }
+        return true;
+    }
+
+    private static byte[] next(Future<byte[]> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while inflating BGZF block", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /** @return the complete compressed block (header, data and trailer), or null at the end of the input */
+    private byte[] readRawBlock() throws IOException {
+        byte[] header = new byte[HEADER_LENGTH];
+        int n = readFully(header, 0, HEADER_LENGTH);
+        if (n == 0) {
+            return null;
+        }
+        if (n < HEADER_LENGTH || (header[0] & 0xFF) != 0x1F || (header[1] & 0xFF) != 0x8B || (header[3] & 4) == 0) {
+            throw new IOException("Invalid BGZF block header");
+        }
+        int xlen = (header[10] & 0xFF) | (header[11] & 0xFF) << 8;
+        byte[] extra = new byte[xlen];
+        if (readFully(extra, 0, xlen) < xlen) {
+            throw new EOFException("Truncated BGZF block header");
+        }
+        int blockSize = blockSize(extra);
+        if (blockSize < HEADER_LENGTH + xlen + TRAILER_LENGTH) {
+            throw new IOException("Invalid BGZF block size " + blockSize);
+        }
+        byte[] raw = new byte[blockSize];
+        System.arraycopy(header, 0, raw, 0, HEADER_LENGTH);
+        System.arraycopy(extra, 0, raw, HEADER_LENGTH, xlen);
+        int rest = blockSize - HEADER_LENGTH - xlen;
+        if (readFully(raw, HEADER_LENGTH + xlen, rest) < rest) {
+            throw new EOFException("Truncated BGZF block");
+        }
+        return raw;
+    }
+
+    /** @return the total block size (BSIZE + 1) from the BC subfield of the gzip extra field */
+    private static int blockSize(byte[] extra) throws IOException {
+        int p = 0;
+        while (p + 4 <= extra.length) {
+            int length = (extra[p + 2] & 0xFF) | (extra[p + 3] & 0xFF) << 8;
+            if (extra[p] == 'B' && extra[p + 1] == 'C' && length == 2 && p + 6 <= extra.length) {
+                return ((extra[p + 4] & 0xFF) | (extra[p + 5] & 0xFF) << 8) + 1;
+            }
+            p += 4 + length;
+        }
+        throw new IOException("gzip block has no BGZF block size");
+    }
+
+    private static byte[] inflate(byte[] raw) throws IOException {
+        int xlen = (raw[10] & 0xFF) | (raw[11] & 0xFF) << 8;
+        int dataStart = HEADER_LENGTH + xlen;
+        int trailer = raw.length - TRAILER_LENGTH;
+        int size = readIntLE(raw, trailer + 4);
+        // ISIZE comes from the file: a corrupt value must not cause a huge (or negative) allocation
+        if (size < 0 || size > MAX_BLOCK_SIZE) {
+            throw new IOException("Invalid BGZF block: inflated size " + Integer.toUnsignedString(size));
+        }
+        byte[] data = new byte[size];
+        Inflater inflater = INFLATER.get();
+        inflater.reset();
+        inflater.setInput(raw, dataStart, trailer - dataStart);
+        try {
+            int n = 0;
+            while (n < size) {
+                int k = inflater.inflate(data, n, size - n);
+                if (k == 0 && (inflater.finished() || inflater.needsInput())) {
+                    break;
+                }
+                n += k;
+            }
+            if (n != size) {
+                throw new IOException("BGZF block is shorter than its declared size");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Invalid BGZF block: " + e.getMessage(), e);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, size);
+        if ((int) crc.getValue() != readIntLE(raw, trailer)) {
+            throw new IOException("CRC32 mismatch in BGZF block");
+        }
+        return data;
+    }
+
+    private static int readIntLE(byte[] b, int p) {
+        return (b[p] & 0xFF) | (b[p + 1] & 0xFF) << 8 | (b[p + 2] & 0xFF) << 16 | (b[p + 3] & 0xFF) << 24;
+    }
+
+    private int readFully(byte[] b, int off, int len) throws IOException {
+        int n = 0;
+        while (n < len) {
+            int k = in.read(b, off + n, len - n);
+            if (k < 0) {
+                break;
+            }
+            n += k;
+        }
+        return n;
+    }
+}
@@ -0,0 +1,115 @@
+package org.monarchinitiative.phenobfuscator.io;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Log of the (mode, input) pairs whose output has been written, so that a run that was interrupted can be resumed
+ * without processing these pairs again. Each pair is appended as a line when it is completed, and the log is
+ * flushed every {@value #FLUSH_RECORDS} pairs or {@value #FLUSH_MILLIS} ms, so that at most the last few pairs are
+ * lost in a crash (they are then processed again; the outputs themselves are written atomically). A line that was
+ * cut off by a crash is ignored.
+ * <p>
+ * The first line records the configuration of the run; a checkpoint can only be resumed with the same
+ * configuration. {@link #isCompleted(String, String)} may be called by several threads, whereas
+ * {@link #add(String, String)} must be called by a single thread.
+ */
+public class Checkpoint implements Closeable {
+    private static final String HEADER = "#phenobfuscator-checkpoint\t1\t";
+    private static final int FLUSH_RECORDS = 100;
+    private static final long FLUSH_MILLIS = 2000L;
+
+    /** The pairs that were completed before this run (key: mode + TAB + input); not changed during the run. */
+    private final Set<String> completed;
+    private final BufferedWriter writer;
+    private int unflushed = 0;
+    private long lastFlush = System.currentTimeMillis();
+
+    private Checkpoint(Set<String> completed, BufferedWriter writer) {
+        this.completed = completed;
+        this.writer = writer;
+    }
+
+    /**
+     * Start a new checkpoint log; an existing log is replaced.
+     * @param configuration everything that determines the outputs of the run (no tabs or line breaks)
+     */
+    public static Checkpoint create(Path path, String configuration) throws IOException {
+        BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8);
+        writer.write(HEADER + configuration);
+        writer.newLine();
+        writer.flush();
+        return new Checkpoint(new HashSet<>(), writer);
+    }
+
+    /**
+     * Continue the checkpoint log of an interrupted run, or start a new one if there is none.
+     * @param configuration must be the configuration of the interrupted run
+     * @throws IllegalArgumentException if the log was written with a different configuration
+     */
+    public static Checkpoint resume(Path path, String configuration) throws IOException {
+        if (! Files.exists(path)) {
+            System.out.printf("[INFO] No checkpoint found at %s; starting from the beginning.\n", path);
+            return create(path, configuration);
+        }
+        Set<String> completed = new HashSet<>();
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String header = reader.readLine();
+            if (! (HEADER + configuration).equals(header)) {
+                throw new IllegalArgumentException("Checkpoint " + path + " was written by a run with different "
+                        + "options; run without --resume to start from the beginning");
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                // a line that was cut off by a crash has no tab, or an input that is not found
+                if (line.indexOf('\t') > 0) {
+                    completed.add(line);
+                }
+            }
+        }
+        BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+        // the last line may have been cut off
+        writer.newLine();
+        return new Checkpoint(completed, writer);
+    }
+
+    private static String key(String mode, String input) {
+        return mode + "\t" + input;
+    }
+
+    /** @return number of pairs that were completed before this run */
+    public int getCompletedCount() {
+        return completed.size();
+    }
+
+    /** @return true if the output of the mode for the input was written before this run */
+    public boolean isCompleted(String mode, String input) {
+        return completed.contains(key(mode, input));
+    }
+
+    /** Record that the output of the mode for the input has been written. */
+    public void add(String mode, String input) throws IOException {
+        writer.write(key(mode, input));
+        writer.newLine();
+        unflushed++;
+        long now = System.currentTimeMillis();
+        if (unflushed >= FLUSH_RECORDS || now - lastFlush >= FLUSH_MILLIS) {
+            writer.flush();
+            unflushed = 0;
+            lastFlush = now;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+}
@@ -0,0 +1,46 @@
+package org.monarchinitiative.phenobfuscator.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.CRC32;
+
+/**
+ * Checksums of input files, used to check whether files that were derived from them (e.g., snapshots or
+ * indexes) are still valid.
+ */
+public class Checksums {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private Checksums() {
+    }
+
+    /**
+     * @param path a file
+     * @return the CRC32 of the content of the file
+     * @throws IOException if the file cannot be read
+     */
+    public static long crc32(Path path) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream in = Files.newInputStream(path)) {
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                crc.update(buffer, 0, n);
+            }
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * @param bytes some data
+     * @return the CRC32 of the data
+     */
+    public static long crc32(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length);
+        return crc.getValue();
+    }
+}
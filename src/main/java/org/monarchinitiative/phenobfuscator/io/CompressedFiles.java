@@ -0,0 +1,72 @@
+package org.monarchinitiative.phenobfuscator.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Opens input files that may be plain, gzip-compressed or BGZF-compressed (bgzip, as used for .vcf.gz files).
+ * The format is recognized from the first bytes of the file rather than from the file name.
+ */
+public class CompressedFiles {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    /** Fixed gzip header (12 bytes) and the BC subfield of a BGZF block (6 bytes). */
+    private static final int BGZF_HEADER_LENGTH = 18;
+
+    private CompressedFiles() {
+    }
+
+    /**
+     * @param path a plain, gzip or BGZF file
+     * @param threads number of threads used to inflate BGZF blocks (ignored for other formats)
+     * @return a stream of the uncompressed content of the file
+     * @throws IOException if the file cannot be opened
+     */
+    public static InputStream open(Path path, int threads) throws IOException {
+        BufferedInputStream in = new BufferedInputStream(Files.newInputStream(path), BUFFER_SIZE);
+        byte[] header = new byte[BGZF_HEADER_LENGTH];
+        in.mark(BGZF_HEADER_LENGTH);
+        int n = 0;
+        int k;
+        while (n < header.length && (k = in.read(header, n, header.length - n)) > 0) {
+            n += k;
+        }
+        in.reset();
+        if (n < 2 || (header[0] & 0xFF) != 0x1F || (header[1] & 0xFF) != 0x8B) {
+            return in;
+        }
+        if (n == BGZF_HEADER_LENGTH && (header[3] & 4) != 0 && header[12] == 'B' && header[13] == 'C') {
+            return new BgzfInputStream(in, threads);
+        }
+        // GZIPInputStream also reads concatenated gzip members
+        return new GZIPInputStream(in, BUFFER_SIZE);
+    }
+
+    /**
+     * @param path a file
+     * @return true if the file is gzip or BGZF compressed
+     * @throws IOException if the file cannot be read
+     */
+    public static boolean isCompressed(Path path) throws IOException {
+        try (InputStream in = Files.newInputStream(path)) {
+            return in.read() == 0x1F && in.read() == 0x8B;
+        }
+    }
+
+    /**
+     * @param path a plain, gzip or BGZF text file
+     * @param threads number of threads used to inflate BGZF blocks
+     * @return a reader of the uncompressed text (UTF-8)
+     * @throws IOException if the file cannot be opened
+     */
+    public static BufferedReader newBufferedReader(Path path, int threads) throws IOException {
+        return new BufferedReader(new InputStreamReader(open(path, threads), StandardCharsets.UTF_8), BUFFER_SIZE);
+    }
+}
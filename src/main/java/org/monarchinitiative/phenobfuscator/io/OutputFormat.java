@@ -0,0 +1,27 @@
+package org.monarchinitiative.phenobfuscator.io;
+
+/**
+ * How the obfuscated phenopackets of one mode are written: one JSON file per phenopacket in a directory (as before),
+ * or all phenopackets in a single file, which avoids creating many small files.
+ */
+public enum OutputFormat {
+    /** One JSON file per phenopacket in a directory. */
+    DIR(""),
+    /** One phenopacket per line, as bare single-line JSON (the format of the JSONL input and of streaming). */
+    JSONL(".jsonl"),
+    /** Zip file with one JSON entry per phenopacket. */
+    ZIP(".zip"),
+    /** Tar file with one JSON entry per phenopacket. */
+    TAR(".tar");
+
+    private final String extension;
+
+    OutputFormat(String extension) {
+        this.extension = extension;
+    }
+
+    /** @return the extension of the output file (empty for directories) */
+    public String getExtension() {
+        return extension;
+    }
+}
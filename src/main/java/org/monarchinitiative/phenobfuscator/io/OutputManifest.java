@@ -0,0 +1,171 @@
+package org.monarchinitiative.phenobfuscator.io;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Records, for each obfuscation mode and input phenopacket, the checksum of the input, the configuration that was
+ * used (HPO version, parameters, seed) and the output file, so that an incremental run only processes the
+ * phenopackets whose input or configuration changed. Inputs that are no longer present are detected at the end of
+ * the run, and their outputs are deleted.
+ * <p>
+ * The manifest is a tab-separated file with a header line; it is rewritten (via a temporary file) at the end of
+ * each run. The methods that are used while processing may be called by several threads.
+ */
+public class OutputManifest {
+    private static final String HEADER = "#phenobfuscator-manifest\t1";
+
+    private final Path path;
+    /** Key: mode + TAB + input. */
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    /** Keys of the entries that were confirmed or recorded in this run. */
+    private final Set<String> current = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger skipped = new AtomicInteger();
+
+    private OutputManifest(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * @param path the manifest file; if it does not exist or cannot be read, all phenopackets are processed
+     * @return the manifest of the previous run
+     */
+    public static OutputManifest load(Path path) {
+        OutputManifest manifest = new OutputManifest(path);
+        if (! Files.exists(path)) {
+            return manifest;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            if (! HEADER.equals(reader.readLine())) {
+                System.out.printf("[INFO] Ignoring manifest %s with unknown format; all phenopackets will be processed.\n", path);
+                return manifest;
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", -1);
+                if (fields.length != 5) {
+                    continue;
+                }
+                Entry entry = new Entry(Long.parseLong(fields[2], 16), fields[3], fields[4]);
+                manifest.entries.put(key(fields[0], fields[1]), entry);
+            }
+        } catch (IOException | NumberFormatException e) {
+            System.out.printf("[INFO] Could not read manifest %s (%s); all phenopackets will be processed.\n",
+                    path, e.getMessage());
+            manifest.entries.clear();
+        }
+        return manifest;
+    }
+
+    private static String key(String mode, String input) {
+        return mode + "\t" + input;
+    }
+
+    /**
+     * @param mode name of the obfuscation mode (e.g., its output directory)
+     * @param input name of the input phenopacket (e.g., its path)
+     * @param checksum checksum of the input
+     * @param configuration everything else that determines the output
+     * @return true if the output of the previous run is still valid, in which case the case need not be processed
+     */
+    public boolean isUpToDate(String mode, String input, long checksum, String configuration) {
+        String key = key(mode, input);
+        Entry entry = entries.get(key);
+        if (entry == null || entry.checksum != checksum || ! entry.configuration.equals(configuration)
+                || (! entry.output.isEmpty() && ! Files.exists(Paths.get(entry.output)))) {
+            return false;
+        }
+        current.add(key);
+        skipped.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Record the output of a case that was processed. If the case had a different output before, that file is
+     * deleted.
+     * @param output path of the output file, or an empty String if the mode does not output this phenopacket
+     */
+    public void record(String mode, String input, long checksum, String configuration, String output)
+            throws IOException {
+        String key = key(mode, input);
+        Entry previous = entries.put(key, new Entry(checksum, configuration, output));
+        current.add(key);
+        if (previous != null && ! previous.output.isEmpty() && ! previous.output.equals(output)) {
+            Files.deleteIfExists(Paths.get(previous.output));
+        }
+    }
+
+    /** @return number of cases that were skipped because their output was up to date */
+    public int getSkippedCount() {
+        return skipped.get();
+    }
+
+    /**
+     * Delete the outputs of the inputs that were not seen in this run (e.g., because the input was deleted).
+     * Must be called after all cases have been processed.
+     * @param modes the modes of this run (the entries of other modes are kept)
+     * @return number of outputs that were removed
+     */
+    public int removeStale(Collection<String> modes) throws IOException {
+        // the same file may now be written for another input key (e.g., if -p was given as a relative path)
+        Set<String> currentOutputs = new HashSet<>();
+        for (String key : current) {
+            currentOutputs.add(entries.get(key).output);
+        }
+        int removed = 0;
+        for (Map.Entry<String, Entry> e : entries.entrySet()) {
+            String mode = e.getKey().substring(0, e.getKey().indexOf('\t'));
+            if (current.contains(e.getKey()) || ! modes.contains(mode)) {
+                continue;
+            }
+            String output = e.getValue().output;
+            if (! output.isEmpty() && ! currentOutputs.contains(output) && Files.deleteIfExists(Paths.get(output))) {
+                removed++;
+            }
+            entries.remove(e.getKey());
+        }
+        return removed;
+    }
+
+    /** Write the manifest to a temporary file that is then renamed. */
+    public void write() throws IOException {
+        Path tmp = path.toAbsolutePath().getParent().resolve(path.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            writer.write(HEADER);
+            writer.newLine();
+            // sorted, so that the manifest does not depend on the order in which the cases were completed
+            for (Map.Entry<String, Entry> e : new TreeMap<>(entries).entrySet()) {
+                Entry entry = e.getValue();
+                writer.write(e.getKey() + "\t" + Long.toHexString(entry.checksum) + "\t" + entry.configuration
+                        + "\t" + entry.output);
+                writer.newLine();
+            }
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static class Entry {
+        private final long checksum;
+        private final String configuration;
+        private final String output;
+
+        Entry(long checksum, String configuration, String output) {
+            this.checksum = checksum;
+            this.configuration = configuration;
+            this.output = output;
+        }
+    }
+}
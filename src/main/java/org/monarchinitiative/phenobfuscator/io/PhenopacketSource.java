@@ -0,0 +1,180 @@
+package org.monarchinitiative.phenobfuscator.io;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * The JSON of one input phenopacket, e.g. a file or a line of a stream. The name is used in messages and to derive
+ * the names of the output files. It is the basename for a single file, and the path relative to the input
+ * directory (or the entry name in a zip file) for files found in a directory, with "/" as separator, so that
+ * phenopackets with the same file name in different subdirectories have different names.
+ */
+public abstract class PhenopacketSource {
+
+    private final String name;
+
+    private PhenopacketSource(String name) {
+        this.name = name;
+    }
+
+    /** @return a source for a phenopacket JSON file, named after its basename */
+    public static PhenopacketSource ofFile(Path path) {
+        return new FileSource(path.getFileName().toString(), path);
+    }
+
+    /**
+     * @param name the name of the phenopacket, e.g. the path of the file relative to the input directory
+     * @return a source for a phenopacket JSON file
+     */
+    public static PhenopacketSource ofFile(String name, Path path) {
+        return new FileSource(name, path);
+    }
+
+    /** @return a source for phenopacket JSON that has already been read */
+    public static PhenopacketSource ofJson(String name, String json) {
+        return new JsonSource(name, json);
+    }
+
+    /**
+     * Read one phenopacket per line (newline-delimited JSON, e.g. from stdin). The lines are read as the iterator
+     * advances, so that a stream of any length can be processed with bounded memory; blank lines are skipped.
+     * @param in the stream, which is read as UTF-8
+     * @param name prefix of the names of the sources, e.g. "cases" for cases-1.json, cases-2.json, ... (the number is
+     *             the line number)
+     * @return the sources, which can be iterated once; the stream is closed at the end
+     */
+    public static Iterator<PhenopacketSource> ofJsonLines(InputStream in, String name) {
+        return new JsonLinesIterator(new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8)), name);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /** @return the path of the file, or null if the phenopacket is not a file of its own */
+    public Path getPath() {
+        return null;
+    }
+
+    /**
+     * @return a reader for the JSON of the phenopacket, which is closed by the caller
+     * @throws IOException if the phenopacket cannot be read
+     */
+    public abstract Reader openReader() throws IOException;
+
+    /**
+     * @return the CRC32 of the JSON, which is used to detect changed inputs
+     * @throws IOException if the phenopacket cannot be read
+     */
+    public abstract long checksum() throws IOException;
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    private static class FileSource extends PhenopacketSource {
+        private final Path path;
+
+        FileSource(String name, Path path) {
+            super(name);
+            this.path = path;
+        }
+
+        @Override
+        public Path getPath() {
+            return path;
+        }
+
+        @Override
+        public Reader openReader() throws IOException {
+            return Files.newBufferedReader(path, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public long checksum() throws IOException {
+            return Checksums.crc32(path);
+        }
+
+        @Override
+        public String toString() {
+            return path.toString();
+        }
+    }
+
+    private static class JsonSource extends PhenopacketSource {
+        private final String json;
+
+        JsonSource(String name, String json) {
+            super(name);
+            this.json = json;
+        }
+
+        @Override
+        public Reader openReader() {
+            return new StringReader(json);
+        }
+
+        @Override
+        public long checksum() {
+            return Checksums.crc32(json.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static class JsonLinesIterator implements Iterator<PhenopacketSource> {
+        private final BufferedReader reader;
+        private final String name;
+        private int lineNumber = 0;
+        private PhenopacketSource next = null;
+        private boolean closed = false;
+
+        JsonLinesIterator(BufferedReader reader, String name) {
+            this.reader = reader;
+            this.name = name;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next != null) {
+                return true;
+            } else if (closed) {
+                return false;
+            }
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    lineNumber++;
+                    if (! line.trim().isEmpty()) {
+                        next = new JsonSource(name + "-" + lineNumber + ".json", line);
+                        return true;
+                    }
+                }
+                closed = true;
+                reader.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not read " + name, e);
+            }
+            return false;
+        }
+
+        @Override
+        public PhenopacketSource next() {
+            if (! hasNext()) {
+                throw new NoSuchElementException();
+            }
+            PhenopacketSource source = next;
+            next = null;
+            return source;
+        }
+    }
+}
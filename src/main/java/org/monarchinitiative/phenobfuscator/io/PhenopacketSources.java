@@ -0,0 +1,250 @@
+package org.monarchinitiative.phenobfuscator.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Finds the input phenopackets: the JSON files in a directory and all of its subdirectories, the entries of a zip
+ * file, or the lines of a JSONL file (optionally gzip-compressed). The input is enumerated lazily while the
+ * phenopackets are processed, so that processing starts right away and the corpus is never held as a list.
+ * <p>
+ * Files and zip entries are selected with include and exclude globs. A glob without "/" is matched against the
+ * file name (e.g., {@code *.json}), other globs against the path relative to the input directory or the entry name
+ * (e.g., {@code cohort1/**}). A file is used if it matches at least one include glob and no exclude glob.
+ * <p>
+ * The sources of files in a directory and of zip entries are named after their relative path (e.g.,
+ * {@code cohort1/case.json}); names must be unique, since the output files are named after them.
+ */
+public class PhenopacketSources implements Iterable<PhenopacketSource> {
+
+    /** Used if no include glob is given (the files that were read before there were globs). */
+    public static final String DEFAULT_INCLUDE = "*.json";
+
+    private final Path input;
+    private final List<Glob> includes = new ArrayList<>();
+    private final List<Glob> excludes = new ArrayList<>();
+    /** Absolute paths of files and directories that are not searched, e.g., the output of the run. */
+    private final Set<Path> excludedPaths = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param input a directory, a zip file, or a JSONL file (.jsonl, .ndjson, optionally with .gz)
+     * @param includes globs of the files to use; {@link #DEFAULT_INCLUDE} if empty
+     * @param excludes globs of the files to skip
+     */
+    public PhenopacketSources(Path input, List<String> includes, List<String> excludes) {
+        if (! Files.exists(input)) {
+            throw new IllegalArgumentException("Could not find phenopacket input at " + input);
+        }
+        this.input = input;
+        FileSystem fs = FileSystems.getDefault();
+        for (String glob : includes.isEmpty() ? Collections.singletonList(DEFAULT_INCLUDE) : includes) {
+            this.includes.add(new Glob(fs, glob));
+        }
+        for (String glob : excludes) {
+            this.excludes.add(new Glob(fs, glob));
+        }
+    }
+
+    /**
+     * Do not use the file, or the files in the directory, even if the directory is within the input directory. This
+     * keeps the outputs of the run (or of an earlier run) out of the input, e.g., if the input directory is the
+     * working directory. Paths may also be excluded while the input is enumerated.
+     * @param path a file or directory, which need not exist yet
+     */
+    public void exclude(Path path) {
+        excludedPaths.add(path.toAbsolutePath().normalize());
+    }
+
+    private boolean isExcluded(Path path) {
+        if (excludedPaths.isEmpty()) {
+            return false;
+        }
+        Path absolute = path.toAbsolutePath().normalize();
+        for (Path excluded : excludedPaths) {
+            if (absolute.startsWith(excluded)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return a new enumeration of the input, so that the phenopackets can be processed several times
+     * @throws UncheckedIOException if the input cannot be read
+     */
+    @Override
+    public Iterator<PhenopacketSource> iterator() {
+        try {
+            if (Files.isDirectory(input)) {
+                return walk();
+            }
+            String fileName = input.getFileName().toString();
+            String name = fileName.toLowerCase();
+            if (name.endsWith(".zip")) {
+                return new ZipIterator(new ZipFile(input.toFile(), StandardCharsets.UTF_8));
+            }
+            if (name.endsWith(".jsonl") || name.endsWith(".ndjson") || name.endsWith(".jsonl.gz")
+                    || name.endsWith(".ndjson.gz")) {
+                InputStream in = CompressedFiles.open(input, 1);
+                return PhenopacketSource.ofJsonLines(in, fileName.substring(0, name.indexOf('.')));
+            }
+            // a single phenopacket file
+            return Collections.singletonList(PhenopacketSource.ofFile(input)).iterator();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read phenopackets from " + input, e);
+        }
+    }
+
+    private Iterator<PhenopacketSource> walk() throws IOException {
+        // Files.walk reads the directories as the stream is consumed
+        Stream<Path> paths = Files.walk(input);
+        Iterator<Path> files = paths
+                .filter(p -> Files.isRegularFile(p) && isSelected(input.relativize(p)) && ! isExcluded(p))
+                .iterator();
+        return new Iterator<PhenopacketSource>() {
+            @Override
+            public boolean hasNext() {
+                if (files.hasNext()) {
+                    return true;
+                }
+                paths.close();
+                return false;
+            }
+
+            @Override
+            public PhenopacketSource next() {
+                Path file = files.next();
+                return PhenopacketSource.ofFile(toName(input.relativize(file)), file);
+            }
+        };
+    }
+
+    /** @return the path with "/" as separator, regardless of the file system */
+    private static String toName(Path relative) {
+        StringBuilder name = new StringBuilder();
+        for (Path element : relative) {
+            if (name.length() > 0) {
+                name.append('/');
+            }
+            name.append(element);
+        }
+        return name.toString();
+    }
+
+    /** @param relative path relative to the input directory, or the name of a zip entry */
+    private boolean isSelected(Path relative) {
+        for (Glob glob : excludes) {
+            if (glob.matches(relative)) {
+                return false;
+            }
+        }
+        for (Glob glob : includes) {
+            if (glob.matches(relative)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static class Glob {
+        private final PathMatcher matcher;
+        /** If true, the glob is matched against the file name only. */
+        private final boolean fileNameOnly;
+
+        Glob(FileSystem fs, String glob) {
+            this.matcher = fs.getPathMatcher("glob:" + glob);
+            this.fileNameOnly = ! glob.contains("/");
+        }
+
+        boolean matches(Path relative) {
+            return matcher.matches(fileNameOnly ? relative.getFileName() : relative);
+        }
+    }
+
+    /** Reads the selected entries of a zip file one at a time; the file is closed after the last entry. */
+    private class ZipIterator implements Iterator<PhenopacketSource> {
+        private final ZipFile zip;
+        private final Enumeration<? extends ZipEntry> entries;
+        private PhenopacketSource next = null;
+        private boolean closed = false;
+        /** A zip file may contain several entries with the same name. */
+        private final Set<String> names = new HashSet<>();
+
+        ZipIterator(ZipFile zip) {
+            this.zip = zip;
+            this.entries = zip.entries();
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next != null) {
+                return true;
+            } else if (closed) {
+                return false;
+            }
+            try {
+                while (entries.hasMoreElements()) {
+                    ZipEntry entry = entries.nextElement();
+                    Path path = Paths.get(entry.getName());
+                    if (entry.isDirectory() || ! isSelected(path)) {
+                        continue;
+                    }
+                    String name = toName(path);
+                    if (! names.add(name)) {
+                        throw new IOException("Duplicate entry " + name);
+                    }
+                    next = PhenopacketSource.ofJson(name, read(entry));
+                    return true;
+                }
+                closed = true;
+                zip.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not read " + input, e);
+            }
+            return false;
+        }
+
+        private String read(ZipEntry entry) throws IOException {
+            try (InputStream in = zip.getInputStream(entry)) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                byte[] buffer = new byte[1 << 14];
+                int n;
+                while ((n = in.read(buffer)) > 0) {
+                    bytes.write(buffer, 0, n);
+                }
+                return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+            }
+        }
+
+        @Override
+        public PhenopacketSource next() {
+            if (! hasNext()) {
+                throw new NoSuchElementException();
+            }
+            PhenopacketSource source = next;
+            next = null;
+            return source;
+        }
+    }
+}
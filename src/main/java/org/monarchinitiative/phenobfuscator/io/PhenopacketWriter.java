@@ -0,0 +1,169 @@
+package org.monarchinitiative.phenobfuscator.io;
+
+import com.google.protobuf.MessageOrBuilder;
+import com.google.protobuf.util.JsonFormat;
+import org.monarchinitiative.phenobfuscator.metrics.RunMetrics;
+import org.monarchinitiative.phenobfuscator.metrics.Stage;
+import org.monarchinitiative.phenol.base.PhenolRuntimeException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Serializes phenopackets to JSON and writes them to files; used for all output of the obfuscator. The JSON
+ * printer is configured once and shared, and each thread streams the JSON into its own reusable byte buffer,
+ * which is then written with a {@link FileChannel}. Each file is written to a temporary file in the same directory
+ * that is renamed when it is complete, so that no partial output files are ever visible.
+ * <p>
+ * A file that cannot be written does not stop the run: the error is printed and counted, and
+ * {@link #reportFailures()} is called once all cases are done. Instances may be used by several threads.
+ */
+public class PhenopacketWriter {
+    /** The printers are immutable and thread-safe. */
+    private static final JsonFormat.Printer PRINTER = JsonFormat.printer();
+    /** Prints the JSON on a single line, e.g. for JSONL. */
+    private static final JsonFormat.Printer COMPACT_PRINTER = PRINTER.omittingInsignificantWhitespace();
+    /** Buffers that have grown beyond this size are not kept for the next phenopacket. */
+    private static final int MAX_POOLED_BUFFER_SIZE = 1 << 22;
+
+    private static final ThreadLocal<JsonBuffer> BUFFERS = ThreadLocal.withInitial(JsonBuffer::new);
+
+    private final AtomicInteger written = new AtomicInteger();
+    private final AtomicInteger failures = new AtomicInteger();
+    /** Times the serialization and the writing of each file. */
+    private final RunMetrics metrics;
+
+    public PhenopacketWriter() {
+        this(new RunMetrics());
+    }
+
+    public PhenopacketWriter(RunMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Write the JSON of the message to the path, replacing any existing file. Errors are printed and counted.
+     * @param message a phenopacket
+     * @param path the output file
+     * @return true if the file was written
+     */
+    public boolean write(MessageOrBuilder message, Path path) {
+        JsonBuffer buffer = BUFFERS.get();
+        try {
+            ByteBuffer json;
+            RunMetrics.Timing serializeTiming = metrics.start(Stage.SERIALIZE);
+            try {
+                json = buffer.print(PRINTER, message);
+            } finally {
+                serializeTiming.stop();
+            }
+            RunMetrics.Timing writeTiming = metrics.start(Stage.WRITE);
+            try {
+                writeAtomically(json, path);
+            } finally {
+                writeTiming.stop();
+            }
+            written.incrementAndGet();
+            return true;
+        } catch (IOException e) {
+            failures.incrementAndGet();
+            System.err.printf("[ERROR] Could not write %s: %s\n", path, e.getMessage());
+            return false;
+        } finally {
+            if (buffer.capacity() > MAX_POOLED_BUFFER_SIZE) {
+                BUFFERS.remove();
+            }
+        }
+    }
+
+    /**
+     * @param message a phenopacket
+     * @param compact if true, the JSON is printed on a single line
+     * @return the UTF-8 encoded JSON of the message
+     * @throws IOException if the message cannot be serialized
+     */
+    public static byte[] toJson(MessageOrBuilder message, boolean compact) throws IOException {
+        JsonBuffer buffer = BUFFERS.get();
+        try {
+            ByteBuffer json = buffer.print(compact ? COMPACT_PRINTER : PRINTER, message);
+            return Arrays.copyOf(json.array(), json.limit());
+        } finally {
+            if (buffer.capacity() > MAX_POOLED_BUFFER_SIZE) {
+                BUFFERS.remove();
+            }
+        }
+    }
+
+    private static void writeAtomically(ByteBuffer json, Path path) throws IOException {
+        Path dir = path.toAbsolutePath().getParent();
+        if (! Files.isDirectory(dir)) {
+            // the subdirectory of an input that was found in a subdirectory of the input directory
+            Files.createDirectories(dir);
+        }
+        // one temporary file per thread, so that threads that write the same path do not interfere
+        Path tmp = dir.resolve("." + path.getFileName() + "." + Thread.currentThread().getId() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (json.hasRemaining()) {
+                channel.write(json);
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /** @return number of files that were written */
+    public int getWrittenCount() {
+        return written.get();
+    }
+
+    /** @return number of files that could not be written */
+    public int getFailureCount() {
+        return failures.get();
+    }
+
+    /**
+     * Print the number of files that could not be written.
+     * @throws PhenolRuntimeException if any file could not be written
+     */
+    public void reportFailures() {
+        int n = failures.get();
+        if (n > 0) {
+            System.err.printf("[ERROR] Could not write %d of %d output files.\n", n, n + written.get());
+            throw new PhenolRuntimeException("Could not write " + n + " output file(s)");
+        }
+    }
+
+    /** Byte buffer with a UTF-8 writer, reused for all phenopackets of a thread. */
+    private static class JsonBuffer extends ByteArrayOutputStream {
+        private final Writer writer = new OutputStreamWriter(this, StandardCharsets.UTF_8);
+
+        JsonBuffer() {
+            super(1 << 14);
+        }
+
+        ByteBuffer print(JsonFormat.Printer printer, MessageOrBuilder message) throws IOException {
+            reset();
+            printer.appendTo(message, writer);
+            writer.flush();
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+
+        int capacity() {
+            return buf.length;
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package org.monarchinitiative.phenobfuscator.metrics;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Timings of the stages of a run (loading the HPO and ClinVar, parsing, obfuscation, serialization and writing),
+ * the obfuscation time and number of outputs of each mode, and the number of processed, skipped and failed
+ * phenopackets. At the end of the run, everything is written to a JSON report. Optionally, each timed stage is also
+ * emitted as a JDK Flight Recorder event. Thread-safe.
+ * <p>
+ * A stage is timed like this:
+ * <pre>
+ * RunMetrics.Timing timing = metrics.start(Stage.PARSE);
+ * try {
+ *     ...
+ * } finally {
+ *     timing.stop();
+ * }
+ * </pre>
+ */
+public class RunMetrics {
+
+    private final long startNanos = System.nanoTime();
+    private final Instant started = Instant.now();
+    private final Map<Stage, LatencyHistogram> stages = new EnumMap<>(Stage.class);
+    /** Obfuscation times per mode, sorted by name for the report. */
+    private final Map<String, ModeMetrics> modes = new ConcurrentSkipListMap<>();
+    private final LongAdder processed = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+    /** Inputs that failed (a set, because an input may be read in more than one pass, e.g. for ClinVar regions). */
+    private final Set<String> failed = ConcurrentHashMap.newKeySet();
+    private volatile boolean jfrEvents = false;
+
+    public RunMetrics() {
+        for (Stage stage : Stage.values()) {
+            stages.put(stage, new LatencyHistogram());
+        }
+    }
+
+    /**
+     * Emit a JFR event for each timed stage from now on.
+     * @return false if the runtime does not include the jdk.jfr module, e.g. a jlink image without it (the events
+     * are then not emitted)
+     */
+    public boolean enableJfrEvents() {
+        try {
+            Class.forName("jdk.jfr.Event");
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+        this.jfrEvents = true;
+        return true;
+    }
+
+    /** @return a running timing of the stage, which is recorded when it is stopped */
+    public Timing start(Stage stage) {
+        return start(stage, null);
+    }
+
+    /**
+     * @param mode the obfuscation mode to which the time is also attributed (may be null)
+     * @return a running timing of the stage, which is recorded when it is stopped
+     */
+    public Timing start(Stage stage, String mode) {
+        return new Timing(stage, mode, jfrEvents ? StageEvent.begin(stage, mode) : null);
+    }
+
+    private void record(Stage stage, String mode, long nanos) {
+        stages.get(stage).record(nanos);
+        if (mode != null && stage == Stage.OBFUSCATE) {
+            modes.computeIfAbsent(mode, m -> new ModeMetrics()).obfuscate.record(nanos);
+        }
+    }
+
+    /** Count an output of a mode (a phenopacket for which the mode returned nothing is not counted). */
+    public void countOutput(String mode) {
+        modes.computeIfAbsent(mode, m -> new ModeMetrics()).outputs.increment();
+    }
+
+    /** Count a phenopacket that was processed. */
+    public void countProcessed() {
+        processed.increment();
+    }
+
+    /** Count a phenopacket that was not processed because its outputs were up to date. */
+    public void countSkipped() {
+        skipped.increment();
+    }
+
+    /** @param input a phenopacket that could not be processed */
+    public void recordFailure(String input) {
+        failed.add(input);
+    }
+
+    public long getProcessedCount() {
+        return processed.sum();
+    }
+
+    public long getSkippedCount() {
+        return skipped.sum();
+    }
+
+    public int getFailedCount() {
+        return failed.size();
+    }
+
+    /**
+     * Write the report to a temporary file that is then renamed.
+     * @param path the JSON file
+     * @param threads the number of threads of the run
+     */
+    public void writeReport(Path path, int threads) throws IOException {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        Path tmp = path.toAbsolutePath().getParent().resolve(path.getFileName() + ".tmp");
+        try (Writer out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8);
+             JsonWriter json = new JsonWriter(out)) {
+            json.setIndent("  ");
+            json.beginObject();
+            json.name("started").value(started.toString());
+            json.name("wall_seconds").value(seconds);
+            json.name("threads").value(threads);
+            json.name("cases").beginObject();
+            json.name("processed").value(getProcessedCount());
+            json.name("skipped").value(getSkippedCount());
+            json.name("failed").value(getFailedCount());
+            json.endObject();
+            json.name("cases_per_second").value(rate(getProcessedCount(), seconds));
+            json.name("stages").beginObject();
+            for (Map.Entry<Stage, LatencyHistogram> e : stages.entrySet()) {
+                if (e.getValue().getCount() > 0) {
+                    json.name(e.getKey().getName());
+                    writeHistogram(json, e.getValue());
+                }
+            }
+            json.endObject();
+            json.name("modes").beginObject();
+            for (Map.Entry<String, ModeMetrics> e : modes.entrySet()) {
+                ModeMetrics mode = e.getValue();
+                json.name(e.getKey()).beginObject();
+                json.name("cases").value(mode.obfuscate.getCount());
+                json.name("outputs").value(mode.outputs.sum());
+                json.name("cases_per_second").value(rate(mode.obfuscate.getCount(), seconds));
+                json.name("obfuscate");
+                writeHistogram(json, mode.obfuscate);
+                json.endObject();
+            }
+            json.endObject();
+            json.endObject();
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static double rate(long count, double seconds) {
+        return seconds > 0 ? count / seconds : 0.0;
+    }
+
+    /** Write the histogram as an object with count, total and percentiles in milliseconds. */
+    private static void writeHistogram(JsonWriter json, LatencyHistogram histogram) throws IOException {
+        long count = histogram.getCount();
+        json.beginObject();
+        json.name("count").value(count);
+        json.name("total_ms").value(millis(histogram.getTotal()));
+        json.name("mean_ms").value(count > 0 ? millis(histogram.getTotal()) / count : 0.0);
+        json.name("p50_ms").value(millis(histogram.getPercentile(0.50)));
+        json.name("p90_ms").value(millis(histogram.getPercentile(0.90)));
+        json.name("p99_ms").value(millis(histogram.getPercentile(0.99)));
+        json.name("max_ms").value(millis(histogram.getMax()));
+        json.endObject();
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    private static class ModeMetrics {
+        private final LatencyHistogram obfuscate = new LatencyHistogram();
+        private final LongAdder outputs = new LongAdder();
+    }
+
+    /** A stage that is being timed; stopping it records the time. */
+    public final class Timing {
+        private final Stage stage;
+        private final String mode;
+        private final long start = System.nanoTime();
+        /** The JFR event, or null; typed as Object so that StageEvent is only loaded if JFR events are enabled. */
+        private final Object event;
+
+        private Timing(Stage stage, String mode, Object event) {
+            this.stage = stage;
+            this.mode = mode;
+            this.event = event;
+        }
+
+        public void stop() {
+            record(stage, mode, System.nanoTime() - start);
+            if (event != null) {
+                StageEvent.commit(event);
+            }
+        }
+    }
+}
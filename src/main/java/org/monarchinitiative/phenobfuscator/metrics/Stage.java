@@ -0,0 +1,32 @@
+package org.monarchinitiative.phenobfuscator.metrics;
+
+/**
+ * The stages of a run that are timed by {@link RunMetrics}.
+ */
+public enum Stage {
+    /** Parsing hp.obo (or reading the HPO snapshot) and building the index. */
+    HPO_LOAD("hpo_load"),
+    /** Parsing the ClinVar VCF file (or reading the ClinVar index). */
+    CLINVAR_LOAD("clinvar_load"),
+    /** Parsing one phenopacket to find the positions of its variants before ClinVar is loaded (part of clinvar_load). */
+    CORPUS_SCAN("corpus_scan"),
+    /** Parsing the JSON of one phenopacket. */
+    PARSE("parse"),
+    /** One obfuscation of one phenopacket (also timed per mode). */
+    OBFUSCATE("obfuscate"),
+    /** Serializing one phenopacket to JSON. */
+    SERIALIZE("serialize"),
+    /** Writing one phenopacket to a file, an archive or stdout. */
+    WRITE("write");
+
+    private final String name;
+
+    Stage(String name) {
+        this.name = name;
+    }
+
+    /** @return the name of the stage in the run report */
+    public String getName() {
+        return name;
+    }
+}
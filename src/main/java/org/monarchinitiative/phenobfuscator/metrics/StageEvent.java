@@ -0,0 +1,42 @@
+package org.monarchinitiative.phenobfuscator.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JDK Flight Recorder event for one timed stage, so that the stages can be correlated with GC pauses and other JVM
+ * events in a recording (e.g., {@code java -XX:StartFlightRecording=filename=run.jfr -jar phenobfuscator.jar --jfr ...}).
+ * This class is only loaded if JFR events were enabled, so that the app still runs on a runtime image without the
+ * jdk.jfr module.
+ */
+@Name("org.monarchinitiative.phenobfuscator.Stage")
+@Label("Phenobfuscator Stage")
+@Category("Phenobfuscator")
+@Description("A stage of the processing of a phenopacket, or of loading the HPO or ClinVar")
+class StageEvent extends Event {
+    @Label("Stage")
+    String stage;
+    @Label("Mode")
+    @Description("Obfuscation mode (output directory), if the stage belongs to one")
+    String mode;
+
+    /** @return the started event (typed as Object, so that callers do not refer to this class) */
+    static Object begin(Stage stage, String mode) {
+        StageEvent event = new StageEvent();
+        event.stage = stage.getName();
+        event.mode = mode;
+        event.begin();
+        return event;
+    }
+
+    static void commit(Object started) {
+        StageEvent event = (StageEvent) started;
+        event.end();
+        if (event.shouldCommit()) {
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,281 @@
+package org.monarchinitiative.phenobfuscator.ontology;
+
+import org.monarchinitiative.phenol.base.PhenolRuntimeException;
+import org.monarchinitiative.phenol.ontology.algo.OntologyAlgorithm;
+import org.monarchinitiative.phenol.ontology.data.Ontology;
+import org.monarchinitiative.phenol.ontology.data.Term;
+import org.monarchinitiative.phenol.ontology.data.TermId;
+import org.phenopackets.schema.v1.core.OntologyClass;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.Set;
+
+import static org.monarchinitiative.phenol.ontology.algo.OntologyAlgorithm.getDescendents;
+
+/**
+ * Immutable, precomputed view of the parts of the HPO that are needed for the obfuscation. Each current
+ * term gets a dense ordinal (in the order of the term ids), and the {@link OntologyClass} message of each term
+ * is built once. For each distance {@code d}, the ancestors that are reached from a term by a path of exactly
+ * {@code d} is_a edges are stored in compressed sparse row (CSR) form: the ancestors at distance {@code d} of the term
+ * with ordinal {@code i} are {@code ancestors[d-1][offsets[d-1][i]]} up to (excluding)
+ * {@code ancestors[d-1][offsets[d-1][i+1]]}. If there are no such ancestors, the row of distance {@code d-1} is used
+ * (the top of the ontology is reached), so that each query is a couple of array reads. The levels are computed
+ * up to the depth of the ontology. The index is built once per run and is shared by all obfuscators and threads.
+ */
+public class HpoIndex {
+    /** Root term id in the phenotypic abnormality subontology. */
+    public final static TermId PHENOTYPIC_ABNORMALITY = TermId.of("HP:0000118");
+
+    /** Primary term ids of all current terms, indexed by ordinal. */
+    private final TermId[] termIds;
+    /** Prebuilt OntologyClass (id and label) of all current terms, indexed by ordinal. */
+    private final OntologyClass[] ontologyClasses;
+    /** Maps primary and alternate term ids (e.g., HP:0001250) to the ordinal of the (primary) term. */
+    private final Map<String, Integer> ordinals;
+    /** Ordinals of the terms in the phenotypic abnormality subontology (including the root). */
+    private final int[] phenotypicAbnormalities;
+    /** For each distance d (index d-1), the start of the ancestors of each term; one more entry than there are terms. */
+    private final int[][] ancestorOffsets;
+    /** For each distance d (index d-1), the ordinals of the ancestors at distance d of all terms. Index 0 holds the parents. */
+    private final int[][] ancestors;
+
+    private HpoIndex(TermId[] termIds, OntologyClass[] ontologyClasses, Map<String, Integer> ordinals,
+                     int[] phenotypicAbnormalities, int[][] ancestorOffsets, int[][] ancestors) {
+        this.termIds = termIds;
+        this.ontologyClasses = ontologyClasses;
+        this.ordinals = ordinals;
+        this.phenotypicAbnormalities = phenotypicAbnormalities;
+        this.ancestorOffsets = ancestorOffsets;
+        this.ancestors = ancestors;
+    }
+
+    /**
+     * Build the index from an ontology that was loaded from hp.obo
+     * @param ontology the HPO
+     * @return the corresponding {@link HpoIndex}
+     */
+    public static HpoIndex fromOntology(Ontology ontology) {
+        TermId[] termIds = ontology.getNonObsoleteTermIds().toArray(new TermId[0]);
+        Arrays.sort(termIds, Comparator.comparing(TermId::getValue));
+        int n = termIds.length;
+        String[] ids = new String[n];
+        String[] labels = new String[n];
+        Map<String, Integer> ordinals = new HashMap<>();
+        for (int i = 0; i < n; i++) {
+            ids[i] = termIds[i].getValue();
+            labels[i] = ontology.getTermMap().get(termIds[i]).getName();
+            ordinals.put(ids[i], i);
+        }
+        Map<String, Integer> alternateIds = new HashMap<>();
+        for (TermId tid : ontology.getObsoleteTermIds()) {
+            TermId primary = ontology.getPrimaryTermId(tid);
+            if (primary != null && ordinals.containsKey(primary.getValue())) {
+                alternateIds.put(tid.getValue(), ordinals.get(primary.getValue()));
+            }
+        }
+        Set<TermId> descendents = getDescendents(ontology, PHENOTYPIC_ABNORMALITY);
+        int[] phenotypicAbnormalities = descendents.stream()
+                .mapToInt(tid -> ordinals.get(tid.getValue()))
+                .sorted()
+                .toArray();
+        int[] parentOffsets = new int[n + 1];
+        int[][] parentsOfTerm = new int[n][];
+        for (int i = 0; i < n; i++) {
+            parentsOfTerm[i] = OntologyAlgorithm.getParentTerms(ontology, termIds[i], false).stream()
+                    .mapToInt(tid -> ordinals.get(tid.getValue()))
+                    .sorted()
+                    .toArray();
+            parentOffsets[i + 1] = parentOffsets[i] + parentsOfTerm[i].length;
+        }
+        int[] parents = flatten(parentsOfTerm, parentOffsets);
+        return of(ids, labels, alternateIds, phenotypicAbnormalities, parentOffsets, parents);
+    }
+
+    /**
+     * Build the index from its basic data, i.e., from the data of an {@link Ontology} or of an {@link HpoSnapshot}.
+     * @param ids primary term ids of all current terms, ordered by id
+     * @param labels labels of the terms
+     * @param alternateIds maps alternate and obsolete term ids to the ordinal of the primary term
+     * @param phenotypicAbnormalities sorted ordinals of the phenotypic abnormality subontology
+     * @param parentOffsets start of the parents of each term in {@code parents}
+     * @param parents ordinals of the is_a parents of all terms
+     * @return the corresponding {@link HpoIndex}
+     */
+    static HpoIndex of(String[] ids, String[] labels, Map<String, Integer> alternateIds,
+                       int[] phenotypicAbnormalities, int[] parentOffsets, int[] parents) {
+        int n = ids.length;
+        TermId[] termIds = new TermId[n];
+        OntologyClass[] ontologyClasses = new OntologyClass[n];
+        Map<String, Integer> ordinals = new HashMap<>(alternateIds);
+        for (int i = 0; i < n; i++) {
+            termIds[i] = TermId.of(ids[i]);
+            ontologyClasses[i] = OntologyClass.newBuilder()
+                    .setId(ids[i])
+                    .setLabel(labels[i])
+                    .build();
+            ordinals.put(ids[i], i);
+        }
+        // distance 1: the parents
+        List<int[]> offsetsByDistance = new ArrayList<>();
+        List<int[]> ancestorsByDistance = new ArrayList<>();
+        offsetsByDistance.add(parentOffsets);
+        ancestorsByDistance.add(parents);
+        // distance d: the parents of the ancestors at distance d-1
+        int[] seen = new int[n];
+        int[] buffer = new int[n];
+        boolean reachedTop = false;
+        while (! reachedTop) {
+            int[] previousOffsets = offsetsByDistance.get(offsetsByDistance.size() - 1);
+            int[] previous = ancestorsByDistance.get(ancestorsByDistance.size() - 1);
+            int[] offsets = new int[n + 1];
+            int[][] ancestorsOfTerm = new int[n][];
+            Arrays.fill(seen, -1);
+            reachedTop = true;
+            for (int i = 0; i < n; i++) {
+                int count = 0;
+                for (int a = previousOffsets[i]; a < previousOffsets[i + 1]; a++) {
+                    int ancestor = previous[a];
+                    for (int p = parentOffsets[ancestor]; p < parentOffsets[ancestor + 1]; p++) {
+                        int parent = parents[p];
+                        if (seen[parent] != i) {
+                            seen[parent] = i;
+                            buffer[count++] = parent;
+                        }
+                    }
+                }
+                if (count == 0) {
+                    // allowed to take fewer generations if no other way
+                    ancestorsOfTerm[i] = Arrays.copyOfRange(previous, previousOffsets[i], previousOffsets[i + 1]);
+                } else {
+                    ancestorsOfTerm[i] = Arrays.copyOf(buffer, count);
+                    Arrays.sort(ancestorsOfTerm[i]);
+                    reachedTop = false;
+                }
+                offsets[i + 1] = offsets[i] + ancestorsOfTerm[i].length;
+            }
+            if (! reachedTop) {
+                offsetsByDistance.add(offsets);
+                ancestorsByDistance.add(flatten(ancestorsOfTerm, offsets));
+            }
+        }
+        return new HpoIndex(termIds, ontologyClasses, ordinals, phenotypicAbnormalities,
+                offsetsByDistance.toArray(new int[0][]), ancestorsByDistance.toArray(new int[0][]));
+    }
+
+    private static int[] flatten(int[][] rows, int[] offsets) {
+        int[] flat = new int[offsets[rows.length]];
+        for (int i = 0; i < rows.length; i++) {
+            System.arraycopy(rows[i], 0, flat, offsets[i], rows[i].length);
+        }
+        return flat;
+    }
+
+    /** @return maps alternate and obsolete term ids to ordinals (used to write the snapshot) */
+    Map<String, Integer> getAlternateIds() {
+        Map<String, Integer> alternateIds = new HashMap<>();
+        for (Map.Entry<String, Integer> e : ordinals.entrySet()) {
+            if (! e.getKey().equals(ontologyClasses[e.getValue()].getId())) {
+                alternateIds.put(e.getKey(), e.getValue());
+            }
+        }
+        return alternateIds;
+    }
+
+    int[] getPhenotypicAbnormalities() {
+        return phenotypicAbnormalities;
+    }
+
+    int[] getParentOffsets() {
+        return ancestorOffsets[0];
+    }
+
+    int[] getParents() {
+        return ancestors[0];
+    }
+
+    /** @return number of current terms */
+    public int size() {
+        return termIds.length;
+    }
+
+    public boolean contains(TermId tid) {
+        return contains(tid.getValue());
+    }
+
+    /** @param id a term id such as HP:0001250 */
+    public boolean contains(String id) {
+        return ordinals.containsKey(id);
+    }
+
+    /**
+     * @param id a primary or alternate term id such as HP:0001250
+     * @return the ordinal of the term
+     * @throws PhenolRuntimeException if the term is not in the HPO
+     */
+    public int getOrdinal(String id) {
+        Integer i = ordinals.get(id);
+        if (i == null) {
+            throw new PhenolRuntimeException("Could not find HPO term " + id);
+        }
+        return i;
+    }
+
+    public TermId getTermId(int ordinal) {
+        return termIds[ordinal];
+    }
+
+    /**
+     * @param tid a primary or alternate term id
+     * @return the primary term id
+     */
+    public TermId getPrimaryTermId(TermId tid) {
+        return termIds[getOrdinal(tid.getValue())];
+    }
+
+    public OntologyClass getOntologyClass(int ordinal) {
+        return ontologyClasses[ordinal];
+    }
+
+    /** @return number of terms in the phenotypic abnormality subontology */
+    public int countPhenotypicAbnormalities() {
+        return phenotypicAbnormalities.length;
+    }
+
+    /**
+     * @param random source of randomness
+     * @return a random term of the phenotypic abnormality subontology
+     */
+    public OntologyClass randomPhenotypicAbnormality(SplittableRandom random) {
+        int r = random.nextInt(phenotypicAbnormalities.length);
+        return ontologyClasses[phenotypicAbnormalities[r]];
+    }
+
+    public int countParents(int ordinal) {
+        return ancestorOffsets[0][ordinal + 1] - ancestorOffsets[0][ordinal];
+    }
+
+    /** @return the greatest distance for which the index has ancestors of some term that differ from the previous distance */
+    public int getMaxAncestorDistance() {
+        return ancestors.length;
+    }
+
+    /**
+     * @param ordinal ordinal of a term that has at least one parent
+     * @param distance number of is_a edges between the term and the ancestor (at least 1)
+     * @param random source of randomness
+     * @return a random ancestor at the given distance, or at the greatest smaller distance at which the term has ancestors
+     */
+    public OntologyClass randomAncestor(int ordinal, int distance, SplittableRandom random) {
+        int d = Math.min(distance, ancestors.length) - 1;
+        int[] offsets = ancestorOffsets[d];
+        int start = offsets[ordinal];
+        int r = random.nextInt(offsets[ordinal + 1] - start);
+        return ontologyClasses[ancestors[d][start + r]];
+    }
+}
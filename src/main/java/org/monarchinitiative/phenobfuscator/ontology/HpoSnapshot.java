@@ -0,0 +1,171 @@
+package org.monarchinitiative.phenobfuscator.ontology;
+
+import org.monarchinitiative.phenobfuscator.io.Checksums;
+import org.monarchinitiative.phenol.io.OntologyLoader;
+import org.monarchinitiative.phenol.ontology.data.Ontology;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Compact binary snapshot of an {@link HpoIndex}, so that hp.obo does not need to be parsed on every run. The
+ * snapshot contains the term ids and labels, the map from alternate/obsolete ids to primary terms, the is_a
+ * parents of each term and the phenotypic abnormality subset. It records the CRC32 and size of the hp.obo
+ * file it was made from and is only used if these still match. The snapshot is memory-mapped when it is read.
+ * <p>
+ * Layout (big-endian): magic, format version, source CRC32 (long), source size (long), number of terms n,
+ * n x (id, label), number of alternate ids m, m x (id, ordinal), number of phenotypic abnormalities k, k x ordinal,
+ * n+1 parent offsets, number of parent edges e, e x parent ordinal. Strings are stored as length + UTF-8 bytes.
+ */
+public class HpoSnapshot {
+    private static final Logger logger = LoggerFactory.getLogger(HpoSnapshot.class);
+    /** "HPOS" */
+    private static final int MAGIC = 0x48504F53;
+    private static final int FORMAT_VERSION = 1;
+
+    private HpoSnapshot() {
+    }
+
+    /**
+     * Read the index from the snapshot if it is valid for the obo file; otherwise parse the obo file, build the index
+     * and (re)write the snapshot.
+     * @param oboPath path to hp.obo
+     * @param snapshotPath path to the snapshot (need not exist)
+     * @return the {@link HpoIndex} for the obo file
+     * @throws IOException if the obo file cannot be read or the snapshot cannot be written
+     */
+    public static HpoIndex loadOrCreate(Path oboPath, Path snapshotPath) throws IOException {
+        long checksum = Checksums.crc32(oboPath);
+        long size = Files.size(oboPath);
+        if (Files.exists(snapshotPath)) {
+            HpoIndex index = read(snapshotPath, checksum, size);
+            if (index != null) {
+                logger.info("Loaded HPO snapshot {}", snapshotPath);
+                return index;
+            }
+            logger.info("HPO snapshot {} does not match {}; it will be rebuilt", snapshotPath, oboPath);
+        }
+        Ontology ontology = OntologyLoader.loadOntology(oboPath.toFile());
+        HpoIndex index = HpoIndex.fromOntology(ontology);
+        write(index, checksum, size, snapshotPath);
+        logger.info("Wrote HPO snapshot {}", snapshotPath);
+        return index;
+    }
+
+    /**
+     * @param snapshotPath path to an existing snapshot
+     * @param checksum expected CRC32 of the source obo file
+     * @param size expected size of the source obo file
+     * @return the index, or null if the snapshot was made from a different obo file or cannot be read
+     * @throws IOException if the snapshot cannot be opened
+     */
+    public static HpoIndex read(Path snapshotPath, long checksum, long size) throws IOException {
+        try (FileChannel channel = FileChannel.open(snapshotPath, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION
+                    || buffer.getLong() != checksum || buffer.getLong() != size) {
+                return null;
+            }
+            int n = buffer.getInt();
+            String[] ids = new String[n];
+            String[] labels = new String[n];
+            for (int i = 0; i < n; i++) {
+                ids[i] = readString(buffer);
+                labels[i] = readString(buffer);
+            }
+            int m = buffer.getInt();
+            Map<String, Integer> alternateIds = new HashMap<>();
+            for (int i = 0; i < m; i++) {
+                String id = readString(buffer);
+                alternateIds.put(id, buffer.getInt());
+            }
+            int[] phenotypicAbnormalities = readInts(buffer, buffer.getInt());
+            int[] parentOffsets = readInts(buffer, n + 1);
+            int[] parents = readInts(buffer, buffer.getInt());
+            return HpoIndex.of(ids, labels, alternateIds, phenotypicAbnormalities, parentOffsets, parents);
+        } catch (BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException
+                | NegativeArraySizeException e) {
+            // truncated or corrupt snapshot
+            logger.warn("Could not read HPO snapshot {}: {}", snapshotPath, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Write the snapshot to a temporary file that is then renamed, so that no partial snapshot is ever read.
+     */
+    public static void write(HpoIndex index, long checksum, long size, Path snapshotPath) throws IOException {
+        Path dir = snapshotPath.toAbsolutePath().getParent();
+        // unlike Files.createTempFile, this keeps the default permissions, so that the snapshot can be shared
+        Path tmp = dir.resolve(snapshotPath.getFileName() + "." + UUID.randomUUID() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(checksum);
+            out.writeLong(size);
+            int n = index.size();
+            out.writeInt(n);
+            for (int i = 0; i < n; i++) {
+                writeString(out, index.getOntologyClass(i).getId());
+                writeString(out, index.getOntologyClass(i).getLabel());
+            }
+            Map<String, Integer> alternateIds = index.getAlternateIds();
+            out.writeInt(alternateIds.size());
+            for (Map.Entry<String, Integer> e : alternateIds.entrySet()) {
+                writeString(out, e.getKey());
+                out.writeInt(e.getValue());
+            }
+            int[] phenotypicAbnormalities = index.getPhenotypicAbnormalities();
+            out.writeInt(phenotypicAbnormalities.length);
+            writeInts(out, phenotypicAbnormalities);
+            writeInts(out, index.getParentOffsets());
+            int[] parents = index.getParents();
+            out.writeInt(parents.length);
+            writeInts(out, parents);
+        } catch (IOException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        Files.move(tmp, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int[] readInts(ByteBuffer buffer, int n) {
+        int[] values = new int[n];
+        buffer.asIntBuffer().get(values);
+        buffer.position(buffer.position() + 4 * n);
+        return values;
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        for (int v : values) {
+            out.writeInt(v);
+        }
+    }
+}
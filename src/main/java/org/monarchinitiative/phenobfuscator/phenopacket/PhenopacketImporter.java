@@ -3,19 +3,20 @@ package org.monarchinitiative.phenobfuscator.phenopacket;
 
 import com.google.common.collect.ImmutableList;
 import com.google.protobuf.util.JsonFormat;
-import org.json.simple.JSONObject;
-import org.json.simple.parser.JSONParser;
-import org.json.simple.parser.ParseException;
+import org.monarchinitiative.phenobfuscator.io.PhenopacketSource;
+import org.monarchinitiative.phenobfuscator.ontology.HpoIndex;
 import org.monarchinitiative.phenol.base.PhenolRuntimeException;
-import org.monarchinitiative.phenol.ontology.data.Ontology;
 import org.monarchinitiative.phenol.ontology.data.TermId;
 import org.phenopackets.schema.v1.Phenopacket;
 import org.phenopackets.schema.v1.core.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.List;
 
 
@@ -26,46 +27,71 @@ import java.util.List;
  */
 public class PhenopacketImporter {
     private static final Logger logger = LoggerFactory.getLogger(PhenopacketImporter.class);
+    /** The parser is immutable and thread-safe, so one instance is shared by all imports. */
+    private static final JsonFormat.Parser JSON_PARSER = JsonFormat.parser();
     /** The Phenopacket that represents the individual being sequenced in the current run. */
     private final Phenopacket phenoPacket;
     /** Object representing the VCF file with variants identified in the subject of this Phenopacket. */
     private HtsFile vcfFile;
     /** Name of the proband of the Phenopacket (corresponds to the {@code id} element of the phenopacket). */
     private final String samplename;
-    /** Reference to HPO ontology */
-    private final Ontology hpo;
+    /** Reference to the precomputed view of the HPO */
+    private final HpoIndex hpo;
 
     /**
      * Factory method to obtain a PhenopacketImporter object starting from a phenopacket in Json format
      * @param pathToJsonPhenopacketFile -- path to the phenopacket
      * @return {@link PhenopacketImporter} object corresponding to the PhenoPacket
      */
-    public static PhenopacketImporter fromJson(String pathToJsonPhenopacketFile, Ontology ontology)  {
-        JSONParser parser = new JSONParser();
+    public static PhenopacketImporter fromJson(String pathToJsonPhenopacketFile, HpoIndex hpoIndex)  {
         logger.trace("Importing Phenopacket: " + pathToJsonPhenopacketFile);
+        // the file is parsed once, straight into the builder, without an intermediate JSON object or String
+        try (Reader reader = Files.newBufferedReader(Paths.get(pathToJsonPhenopacketFile), StandardCharsets.UTF_8)) {
+            Phenopacket.Builder phenoPacketBuilder = Phenopacket.newBuilder();
+            JSON_PARSER.merge(reader, phenoPacketBuilder);
+            return new PhenopacketImporter(phenoPacketBuilder.build(),hpoIndex);
+        } catch (IOException e) {
+            throw new RuntimeException("Could not load phenopacket at " + pathToJsonPhenopacketFile + ": "
+                    + e.getMessage(), e);
+        }
+    }
 
-        try {
-            Object obj = parser.parse(new FileReader(pathToJsonPhenopacketFile));
-            JSONObject jsonObject = (JSONObject) obj;
-            String phenopacketJsonString = jsonObject.toJSONString();
-            Phenopacket phenopacket;
+    /**
+     * Factory method to obtain a PhenopacketImporter object from the JSON of a phenopacket file or stream
+     * @param source the phenopacket JSON
+     * @return {@link PhenopacketImporter} object corresponding to the PhenoPacket
+     */
+    public static PhenopacketImporter fromSource(PhenopacketSource source, HpoIndex hpoIndex) {
+        logger.trace("Importing Phenopacket: " + source);
+        try (Reader reader = source.openReader()) {
             Phenopacket.Builder phenoPacketBuilder = Phenopacket.newBuilder();
-            JsonFormat.parser().merge(phenopacketJsonString, phenoPacketBuilder);
-            phenopacket = phenoPacketBuilder.build();
-            return new PhenopacketImporter(phenopacket,ontology);
-        } catch (IOException | ParseException e1) {
-            e1.printStackTrace();
-            throw new RuntimeException("Could not load phenopacket at " + pathToJsonPhenopacketFile);
+            JSON_PARSER.merge(reader, phenoPacketBuilder);
+            return new PhenopacketImporter(phenoPacketBuilder.build(), hpoIndex);
+        } catch (IOException e) {
+            throw new RuntimeException("Could not load phenopacket " + source + ": " + e.getMessage());
         }
     }
 
-    private PhenopacketImporter(Phenopacket ppack, Ontology ontology){
+    /**
+     * Factory method to obtain a PhenopacketImporter object for a phenopacket that has already been parsed
+     * @param phenopacket a parsed phenopacket
+     * @return {@link PhenopacketImporter} object corresponding to the PhenoPacket
+     */
+    public static PhenopacketImporter fromPhenopacket(Phenopacket phenopacket, HpoIndex hpoIndex) {
+        return new PhenopacketImporter(phenopacket, hpoIndex);
+    }
+
+    private PhenopacketImporter(Phenopacket ppack, HpoIndex hpoIndex){
         this.phenoPacket=ppack;
         this.samplename = this.phenoPacket.getSubject().getId();
-        this.hpo=ontology;
+        this.hpo=hpoIndex;
         extractVcfData();
     }
 
+    public Phenopacket getPhenopacket() {
+        return this.phenoPacket;
+    }
+
     public Individual getSubject() {
         return this.phenoPacket.getSubject();
     }
@@ -84,12 +110,12 @@ public class PhenopacketImporter {
             if (feature.getNegated()) continue;
             String id = feature.getType().getId();
             TermId tid = TermId.of(id);
-            if (! hpo.getTermMap().containsKey(tid)) {
+            if (! hpo.contains(tid)) {
                 logger.error("Could not identify HPO term id {}.",tid.getValue());
                 System.err.println("[ERROR] Could not identify HPO term id " + tid.getValue() +". ");
                 System.err.println("[ERROR] Please check the input file and update to the latest hp.obo file. ");
                 throw new PhenolRuntimeException("Could not identify HPO term id: "+tid.getValue());
-            } else if (hpo.getObsoleteTermIds().contains(tid)) {
+            } else if (! hpo.getPrimaryTermId(tid).equals(tid)) {
                 TermId current =  hpo.getPrimaryTermId(tid);
                 builder.add(current);
                 logger.error("Replacing obsolete HPO term id {} with current id {}.",tid.getValue(),current.getValue());
@@ -115,12 +141,12 @@ public class PhenopacketImporter {
             if (! feature.getNegated()) continue;
             String id = feature.getType().getId();
             TermId tid = TermId.of(id);
-            if (! hpo.getTermMap().containsKey(tid)) {
+            if (! hpo.contains(tid)) {
                 logger.error("Could not identify HPO term id {}.",tid.getValue());
                 System.err.println("[ERROR] Could not identify HPO term id " + tid.getValue() +". ");
                 System.err.println("[ERROR] Please check the input file and update to the latest hp.obo file. ");
                 throw new PhenolRuntimeException("Could not identify HPO term id: "+tid.getValue());
-            } else if (hpo.getObsoleteTermIds().contains(tid)) {
+            } else if (! hpo.getPrimaryTermId(tid).equals(tid)) {
                 TermId current =  hpo.getPrimaryTermId(tid);
                 builder.add(current);
                 logger.error("Replacing obsolete HPO term id {} with current id {}.",tid.getValue(),current.getValue());
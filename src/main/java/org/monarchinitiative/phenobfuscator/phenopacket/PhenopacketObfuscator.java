@@ -1,59 +1,64 @@
 package org.monarchinitiative.phenobfuscator.phenopacket;
 
 import com.google.common.collect.ImmutableList;
+import org.monarchinitiative.phenobfuscator.ontology.HpoIndex;
 import org.monarchinitiative.phenol.base.PhenolRuntimeException;
-import org.monarchinitiative.phenol.ontology.algo.OntologyAlgorithm;
-import org.monarchinitiative.phenol.ontology.data.Ontology;
-import org.monarchinitiative.phenol.ontology.data.TermId;
 import org.phenopackets.schema.v1.Phenopacket;
 import org.phenopackets.schema.v1.core.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Random;
-import java.util.Set;
+import java.util.SplittableRandom;
 import java.util.stream.Collectors;
 
-import static org.monarchinitiative.phenol.ontology.algo.OntologyAlgorithm.getDescendents;
-
 public class PhenopacketObfuscator {
+    private static final Logger logger = LoggerFactory.getLogger(PhenopacketObfuscator.class);
 
     private Individual subject;
     private Disease simulatedDiagnosis;
     private List<PhenotypicFeature> hpoIdList;
     private List<Variant> variants;
     private Gene gene;
-    private Ontology ontology;
+    /** Precomputed view of the HPO that is shared by all obfuscators. */
+    private final HpoIndex hpoIndex;
 
     private final OntologyClass HOMOZYGOUS = OntologyClass.newBuilder().setId("GENO:0000136").setLabel("homozygous").build();
     private final OntologyClass HETEROZYGOUS = OntologyClass.newBuilder().setId("GENO:0000135").setLabel("heterozygous").build();
 
     private int n_alleles = 1;
-    /** use imprecision (move terms to a parent term */
-    private boolean imprecision = false;
-    /**  use double imprecision (moves terms to a grandparent term */
-    private boolean double_imprecision = false;
+    /** move terms to an ancestor at this distance (1: parent term, 2: grandparent term, 0: no imprecision) */
+    private int imprecisionDepth = 0;
     /** number of n_noise terms to add */
     private int n_noise = 0;
     /** add an equal number of n_noise terms */
     private boolean matchNoise = false;
 
-    /** Root term id in the phenotypic abnormality subontology. */
-    private final static TermId PHENOTYPIC_ABNORMALITY = TermId.of("HP:0000118");
-
 
 
     /** This constructor should be used for all usages except the biallelic analysis. */
-    public PhenopacketObfuscator(String path, Ontology o, int n_alleles, boolean imprecision, boolean double_imprecision, int noise, boolean matchNoise){
-        this(path,o);
+    public PhenopacketObfuscator(String path, HpoIndex index, int n_alleles, boolean imprecision, boolean double_imprecision, int noise, boolean matchNoise){
+        this(importPhenopacket(path, index), index, n_alleles, imprecision, double_imprecision, noise, matchNoise);
+    }
+
+    /** Same as above, but for a phenopacket that has already been parsed, e.g., to apply several obfuscations to it. */
+    public PhenopacketObfuscator(Phenopacket phenopacket, HpoIndex index, int n_alleles, boolean imprecision, boolean double_imprecision, int noise, boolean matchNoise){
+        this(phenopacket, index, n_alleles, toImprecisionDepth(imprecision, double_imprecision), noise, matchNoise);
+    }
+
+    /**
+     * @param imprecisionDepth replace each term by an ancestor at this distance (0: no imprecision)
+     */
+    public PhenopacketObfuscator(Phenopacket phenopacket, HpoIndex index, int n_alleles, int imprecisionDepth, int noise, boolean matchNoise){
+        this(phenopacket, index);
         this.n_alleles = n_alleles;
-        this.imprecision = imprecision;
-        this.double_imprecision = double_imprecision;
+        this.imprecisionDepth = imprecisionDepth;
         this.matchNoise = matchNoise;
         this.n_noise = noise;
-        if (imprecision && double_imprecision) {
-            throw new RuntimeException("Cannot use --impression and --double_imprecision options at the same time");
+        if (imprecisionDepth < 0) {
+            throw new RuntimeException("Imprecision depth must not be negative but was " + imprecisionDepth);
         }
         if (matchNoise && n_alleles>0) {
             throw new RuntimeException("Cannot use --match_noise and --n_noise options at the same time");
@@ -62,13 +67,13 @@ public class PhenopacketObfuscator {
     }
 
 
-    public PhenopacketObfuscator(String path, Ontology o) {
-        File f = new File(path);
-        if (! f.exists()) {
-            throw new RuntimeException("Could not find phenopacket file at " + f.getAbsolutePath());
-        }
-        this.ontology = o;
-        PhenopacketImporter importer = PhenopacketImporter.fromJson(path, this.ontology);
+    public PhenopacketObfuscator(String path, HpoIndex index) {
+        this(importPhenopacket(path, index), index);
+    }
+
+    public PhenopacketObfuscator(Phenopacket phenopacket, HpoIndex index) {
+        this.hpoIndex = index;
+        PhenopacketImporter importer = PhenopacketImporter.fromPhenopacket(phenopacket, this.hpoIndex);
         this.subject = importer.getSubject();
         this.simulatedDiagnosis = importer.getDiagnosis();
         this.hpoIdList = importer.getPhenotypicFeatureList();
@@ -76,36 +81,53 @@ public class PhenopacketObfuscator {
         this.gene = importer.getGene();
     }
 
-    /** @return An obfuscated Phenopacket -- obfuscated according to the parameters. */
-    public Phenopacket getObfuscation() {
+    private static int toImprecisionDepth(boolean imprecision, boolean double_imprecision) {
+        if (imprecision && double_imprecision) {
+            throw new RuntimeException("Cannot use --impression and --double_imprecision options at the same time");
+        }
+        return imprecision ? 1 : double_imprecision ? 2 : 0;
+    }
+
+    private static Phenopacket importPhenopacket(String path, HpoIndex index) {
+        File f = new File(path);
+        if (! f.exists()) {
+            throw new RuntimeException("Could not find phenopacket file at " + f.getAbsolutePath());
+        }
+        return PhenopacketImporter.fromJson(path, index).getPhenopacket();
+    }
+
+    /**
+     * The obfuscation does not change the state of this object, so that several obfuscations can be
+     * derived from the same phenopacket.
+     * @param random source of the noise terms, ancestors and the retained allele
+     * @return An obfuscated Phenopacket -- obfuscated according to the parameters.
+     */
+    public Phenopacket getObfuscation(SplittableRandom random) {
         List<PhenotypicFeature> newHpoIdList;
-        if (imprecision) {
-            newHpoIdList = impreciseHpos();
-        } else if (double_imprecision) {
-            newHpoIdList = doubleImpreciseHpos();
+        if (imprecisionDepth > 0) {
+            newHpoIdList = impreciseHpos(imprecisionDepth, random);
         } else {
             newHpoIdList = new ArrayList<>(this.hpoIdList);
         }
-        if (matchNoise) {
-            n_noise = newHpoIdList.size();
-        }
-        if (n_noise>0) {
-            List<PhenotypicFeature> noiseTerms = getNoiseTerms(n_noise);
+        int noiseCount = matchNoise ? newHpoIdList.size() : n_noise;
+        if (noiseCount>0) {
+            List<PhenotypicFeature> noiseTerms = getNoiseTerms(noiseCount, random);
             newHpoIdList.addAll(noiseTerms);
         }
+        List<Variant> newVariants;
         if (n_alleles == 2) {
-            variants = ImmutableList.of();
+            newVariants = ImmutableList.of();
         } else if (n_alleles == 1) {
-            Variant v = extractHeterozygousVariant(this.variants);
-            this.variants = new ArrayList<>();
-            this.variants.add(v);
+            newVariants = ImmutableList.of(extractHeterozygousVariant(this.variants, random));
+        } else {
+            newVariants = this.variants;
         }
         return Phenopacket.newBuilder().
                 setSubject(subject).
                 addDiseases(simulatedDiagnosis).
                 addAllPhenotypicFeatures(newHpoIdList).
                 addGenes(gene).
-                addAllVariants(this.variants).
+                addAllVariants(newVariants).
                 build();
     }
 
@@ -127,24 +149,14 @@ public class PhenopacketObfuscator {
      *  individual patient and this is a definite observation.
      * @param n_noise number of noise terms
      * @param negated if true, negate the noise term, i.e., "NOT"
+     * @param random source of the terms
      * @return a random term from the phenotype subontology.
      */
-      private  List<PhenotypicFeature> getNoiseTerms(int n_noise, boolean negated) {
-        Set<TermId> descendents=getDescendents(ontology,PHENOTYPIC_ABNORMALITY);
-        ImmutableList.Builder<TermId> builder = new ImmutableList.Builder<>();
-        for (TermId t: descendents) {
-            builder.add(t);
-        }
-        final ImmutableList<TermId> phenotypeterms = builder.build();
-        int n = phenotypeterms.size();
-        List<PhenotypicFeature> pfl = new ArrayList<>();
+      private  List<PhenotypicFeature> getNoiseTerms(int n_noise, boolean negated, SplittableRandom random) {
+        List<PhenotypicFeature> pfl = new ArrayList<>(n_noise);
 
         for (int i=0;i<n_noise;i++) {
-            int r = new Random().nextInt(n);
-            TermId tid = phenotypeterms.get(r);
-            OntologyClass oc = OntologyClass.newBuilder().
-                    setId(tid.getValue()).
-                    setLabel(this.ontology.getTermMap().get(tid).getName()).build();
+            OntologyClass oc = hpoIndex.randomPhenotypicAbnormality(random);
             if (negated) {
                 PhenotypicFeature pf = PhenotypicFeature.newBuilder()
                         .setType(oc).setNegated(true).build();
@@ -177,74 +189,47 @@ public class PhenopacketObfuscator {
      * individual patient and this is a definite observation.
      * @return a random "observed" term from the phenotype subontology.
      */
-    private  List<PhenotypicFeature> getNoiseTerms(int n_noise) {
-        return getNoiseTerms(n_noise, false);
+    private  List<PhenotypicFeature> getNoiseTerms(int n_noise, SplittableRandom random) {
+        return getNoiseTerms(n_noise, false, random);
     }
 
 
 
 
-    private PhenotypicFeature getParentPhenotypicFeature(PhenotypicFeature pf) {
-        OntologyClass oc = pf.getType();
-        TermId tid = TermId.of(oc.getId());
-        if (! ontology.getTermMap().containsKey(tid)) {
-            throw new RuntimeException("Could not find phenopacket term " + oc.getId() + " : " + oc.getLabel());
-        }
-        Set<TermId> parents = OntologyAlgorithm.getParentTerms(ontology,tid,false);
-        if (parents.isEmpty()) {
-            throw new RuntimeException("Could not find parent term for " + oc.getId() + " : " + oc.getLabel());
-        }
-        int idx = new Random().nextInt(parents.size());
-        TermId newTid = new ArrayList<>(parents).get(idx);
-        OntologyClass oc2 = OntologyClass.newBuilder().
-                setId(newTid.getValue()).
-                setLabel(this.ontology.getTermMap().get(newTid).getName()).build();
+    /**
+     * @param pf an observed feature
+     * @param depth distance between the term of the feature and the ancestor (1: parent, 2: grandparent, ...)
+     * @return a feature with a random ancestor of the term at the given distance, or at a smaller distance if
+     * the top of the ontology is reached first
+     */
+    private PhenotypicFeature getAncestorPhenotypicFeature(PhenotypicFeature pf, int depth, SplittableRandom random) {
+        int ordinal = getOrdinalWithParents(pf.getType());
+        OntologyClass oc2 = hpoIndex.randomAncestor(ordinal, depth, random);
         return PhenotypicFeature.newBuilder()
                 .setType(oc2).build();
     }
 
-    private PhenotypicFeature getGrandparentPhenotypicFeature(PhenotypicFeature pf) {
-        OntologyClass oc = pf.getType();
-        TermId tid = TermId.of(oc.getId());
-        if (! ontology.getTermMap().containsKey(tid)) {
+    /** @return the ordinal of the term in the {@link HpoIndex}; the term is required to have at least one parent. */
+    private int getOrdinalWithParents(OntologyClass oc) {
+        if (! hpoIndex.contains(oc.getId())) {
             throw new RuntimeException("Could not find phenopacket term " + oc.getId() + " : " + oc.getLabel());
         }
-        Set<TermId> parents = OntologyAlgorithm.getParentTerms(ontology,tid,false);
-        if (parents.isEmpty()) {
+        int ordinal = hpoIndex.getOrdinal(oc.getId());
+        if (hpoIndex.countParents(ordinal) == 0) {
             throw new RuntimeException("Could not find parent term for " + oc.getId() + " : " + oc.getLabel());
         }
-        Set<TermId> grandparents = OntologyAlgorithm.getParentTerms(ontology,parents,false);
-        if (grandparents.isEmpty()) {
-            grandparents = parents; // allowed to take only one generation if no other way
-        }
-        int idx = new Random().nextInt(grandparents.size());
-        TermId newTid = new ArrayList<>(grandparents).get(idx);
-        OntologyClass oc2 = OntologyClass.newBuilder().
-                setId(newTid.getValue()).
-                setLabel(this.ontology.getTermMap().get(newTid).getName()).build();
-        return PhenotypicFeature.newBuilder()
-                .setType(oc2).build();
+        return ordinal;
     }
 
 
 
 
 
-    private  List<PhenotypicFeature> impreciseHpos() {
-        List<PhenotypicFeature> hpos = new ArrayList<>();
-        for (PhenotypicFeature pf : this.hpoIdList) {
-            PhenotypicFeature parent = getParentPhenotypicFeature(pf);
-            hpos.add(parent);
-        }
-        return hpos;
-    }
-
-
-    private  List<PhenotypicFeature> doubleImpreciseHpos() {
+    private  List<PhenotypicFeature> impreciseHpos(int depth, SplittableRandom random) {
         List<PhenotypicFeature> hpos = new ArrayList<>();
         for (PhenotypicFeature pf : this.hpoIdList) {
-            PhenotypicFeature parent = getGrandparentPhenotypicFeature(pf);
-            hpos.add(parent);
+            PhenotypicFeature ancestor = getAncestorPhenotypicFeature(pf, depth, random);
+            hpos.add(ancestor);
         }
         return hpos;
     }
@@ -273,7 +258,8 @@ public class PhenopacketObfuscator {
         }
         VcfAllele vcfAllele = var.getVcfAllele();
         if (vcfAllele.getChr().contains("X")) {
-            System.out.println("[INFO] Skipping X chromosomal variant");
+            // logged rather than printed, because cases may be processed in parallel
+            logger.info("Skipping X chromosomal variant {}:{}", vcfAllele.getChr(), vcfAllele.getPos());
             return false;
         }
         if (var.getZygosity().equals(HOMOZYGOUS)) {
@@ -287,16 +273,16 @@ public class PhenopacketObfuscator {
      * Extract a single heterozygous variant.
      * Assumption. There is either one homozygous variants or multiple het/hom variants
      * @param variants A list of one or more variant of arbitrary genotype
+     * @param random source of the choice between several variants
      * @return A single heterozygous Variant
      */
-    private Variant extractHeterozygousVariant(List<Variant> variants) {
+    private Variant extractHeterozygousVariant(List<Variant> variants, SplittableRandom random) {
         Variant obfuvar;
         Variant currentVar;
         if (variants.size()==1) {
             currentVar = variants.get(0);
         } else {
-            Random rand = new Random();
-            int rand_int = rand.nextInt(variants.size());
+            int rand_int = random.nextInt(variants.size());
             currentVar = variants.get(rand_int);
         }
         VcfAllele currentAllele = currentVar.getVcfAllele();
@@ -319,10 +305,11 @@ public class PhenopacketObfuscator {
      *  this might be the case if there is a single homozygous variant,
      *  then, change the zygosity to heterzygous
      *  or if there are compound het variants, just keep one
+     * @param random source of the choice between compound heterozygous variants
      * @return a biallelic-ly obfuscated phenopacket
      */
-    public Phenopacket getBiallelicObfuscation() {
-        Variant hetvar = extractHeterozygousVariant(variants);
+    public Phenopacket getBiallelicObfuscation(SplittableRandom random) {
+        Variant hetvar = extractHeterozygousVariant(variants, random);
         return Phenopacket.newBuilder().
                 setSubject(subject).
                 addDiseases(simulatedDiagnosis).
@@ -354,9 +341,10 @@ public class PhenopacketObfuscator {
 
     /**
      * Exchange all "original" HPO terms with random HPO terms.
+     * @param random source of the random terms
      * @return a phenopacket in which all HPO terms have beeen replaced by random terms
      */
-    public Phenopacket getObfuscationByReplacement() {
+    public Phenopacket getObfuscationByReplacement(SplittableRandom random) {
         int n_observed = 0;
         int n_negated = 0;
         for (PhenotypicFeature pf : this.hpoIdList) {
@@ -367,8 +355,8 @@ public class PhenopacketObfuscator {
             }
         }
         List<PhenotypicFeature> pfl = new ArrayList<>();
-        List<PhenotypicFeature> randomObserved = getNoiseTerms(n_observed);
-        List<PhenotypicFeature> randomNegated = getNoiseTerms(n_negated, true);
+        List<PhenotypicFeature> randomObserved = getNoiseTerms(n_observed, random);
+        List<PhenotypicFeature> randomNegated = getNoiseTerms(n_negated, true, random);
         pfl.addAll(randomObserved);
         pfl.addAll(randomNegated);
         return Phenopacket.newBuilder().
@@ -0,0 +1,57 @@
+package org.monarchinitiative.phenobfuscator.variant;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Trimming of VCF alleles to their minimal representation: bases that ref and alt share at the end and then at
+ * the start are removed, keeping at least one base in each allele, and the position moves right by the number of
+ * bases removed at the start. For instance, 1:100 AGA>AG becomes 1:101 GA>G. Without the reference sequence, indels
+ * cannot be shifted to their leftmost position, so alleles that were written at different positions of a repeat
+ * still do not match. The methods return the number of bases to remove, so that callers can work on ranges
+ * instead of creating new Strings.
+ */
+final class Alleles {
+
+    private Alleles() {
+    }
+
+    /** @return number of bases that ref and alt share at their end and that can be removed */
+    static int commonSuffix(CharSequence ref, CharSequence alt) {
+        int max = Math.min(ref.length(), alt.length()) - 1;
+        int n = 0;
+        while (n < max && ref.charAt(ref.length() - 1 - n) == alt.charAt(alt.length() - 1 - n)) {
+            n++;
+        }
+        return n;
+    }
+
+    /** @return number of bases that ref and alt share at their start once {@code suffix} bases have been removed */
+    static int commonPrefix(CharSequence ref, CharSequence alt, int suffix) {
+        int max = Math.min(ref.length(), alt.length()) - suffix - 1;
+        int n = 0;
+        while (n < max && ref.charAt(n) == alt.charAt(n)) {
+            n++;
+        }
+        return n;
+    }
+
+    /** Same as {@link #commonSuffix(CharSequence, CharSequence)} for alleles in a buffer. */
+    static int commonSuffix(ByteBuffer buf, int refStart, int refEnd, int altStart, int altEnd) {
+        int max = Math.min(refEnd - refStart, altEnd - altStart) - 1;
+        int n = 0;
+        while (n < max && buf.get(refEnd - 1 - n) == buf.get(altEnd - 1 - n)) {
+            n++;
+        }
+        return n;
+    }
+
+    /** Same as {@link #commonPrefix(CharSequence, CharSequence, int)} for alleles in a buffer. */
+    static int commonPrefix(ByteBuffer buf, int refStart, int refEnd, int altStart, int altEnd, int suffix) {
+        int max = Math.min(refEnd - refStart, altEnd - altStart) - suffix - 1;
+        int n = 0;
+        while (n < max && buf.get(refStart + n) == buf.get(altStart + n)) {
+            n++;
+        }
+        return n;
+    }
+}
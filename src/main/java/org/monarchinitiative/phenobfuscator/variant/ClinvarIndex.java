@@ -0,0 +1,567 @@
+package org.monarchinitiative.phenobfuscator.variant;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+
+/**
+ * Compact set of ClinVar variants. Instead of one {@link Variant} object with four Strings per record, the
+ * contig id (see {@link ContigDictionary}, so that "chr1" and "1" match) and position of each record are packed into
+ * one long, and the significance, ref and alt alleles are
+ * stored as bytes in a shared arena. The records are kept in an open-addressing hash table (linear probing) of
+ * primitive arrays. {@link #contains(String, int, String, String)} does not allocate, so that the variants of the
+ * phenopackets can be looked up without creating {@link Variant} objects. The tables are held in NIO buffers, so
+ * that an index can either be built in memory or be memory-mapped from a {@link ClinvarIndexFile}.
+ * <p>
+ * Small indexes (e.g., of the regions of a phenopacket corpus) can instead be built with {@link Builder#buildSorted()}:
+ * the keys are then stored without empty slots in ascending order, and a lookup is a binary search.
+ * <p>
+ * If the index is built with allele trimming (see {@link Alleles}), records are stored in their minimal form, and the
+ * alleles of a lookup are trimmed in the same way (without allocating) before they are compared.
+ * <p>
+ * Arena layout of each record: significance (ordinal of {@link ClinvarSignificance}), length of ref, ref bytes,
+ * length of alt, alt bytes. Lengths are stored as unsigned varints. Alleles are expected to be ASCII (as in VCF).
+ */
+public class ClinvarIndex extends AbstractSet<Variant> {
+    /** Key of an empty slot. Contig ids start at 1, so no record has this key. */
+    private static final long EMPTY = 0L;
+    private static final ClinvarSignificance[] SIGNIFICANCES = ClinvarSignificance.values();
+
+    /** Contig ids of the records. */
+    private final ContigDictionary contigs;
+    /** Packed contig id and position of the record in each slot. */
+    private final LongBuffer keys;
+    /** Offset of the record in each slot in {@link #arena}. */
+    private final IntBuffer records;
+    /** Significance and alleles of all records. */
+    private final ByteBuffer arena;
+    private final int capacity;
+    private final int mask;
+    private final int size;
+    /** If true, the keys are sorted (binary search) instead of being a hash table. */
+    private final boolean sorted;
+    /** If true, the alleles of the records and of the lookups are trimmed. */
+    private final boolean trimAlleles;
+
+    private ClinvarIndex(ContigDictionary contigs, LongBuffer keys, IntBuffer records, ByteBuffer arena, int size,
+                         boolean sorted, boolean trimAlleles) {
+        this.contigs = contigs;
+        this.keys = keys;
+        this.records = records;
+        this.arena = arena;
+        this.capacity = keys.limit();
+        this.mask = capacity - 1;
+        this.size = size;
+        this.sorted = sorted;
+        this.trimAlleles = trimAlleles;
+    }
+
+    /**
+     * Wrap the tables of an index, e.g., the memory-mapped tables of a {@link ClinvarIndexFile}.
+     * @param otherContigs names of the contigs that are not chromosomes, in the order of their ids
+     * @param keys hash table of packed contig ids and positions (the capacity is a power of two)
+     * @param records offsets of the records in the arena
+     * @param arena significances and alleles
+     * @param size number of records
+     * @param trimAlleles whether the alleles of the records were trimmed
+     */
+    static ClinvarIndex of(List<String> otherContigs, LongBuffer keys, IntBuffer records, ByteBuffer arena, int size,
+                           boolean trimAlleles) {
+        if (Integer.bitCount(keys.limit()) != 1 || records.limit() != keys.limit()) {
+            throw new IllegalArgumentException("Invalid ClinVar index table size " + keys.limit());
+        }
+        return new ClinvarIndex(new ContigDictionary(otherContigs), keys, records, arena, size, false, trimAlleles);
+    }
+
+    /** @return true if this index is a sorted array rather than a hash table (and so cannot be written to a file) */
+    boolean isSorted() {
+        return sorted;
+    }
+
+    /** @return true if the alleles are trimmed to their minimal representation */
+    public boolean isTrimAlleles() {
+        return trimAlleles;
+    }
+
+    List<String> getOtherContigNames() {
+        return contigs.getOtherNames();
+    }
+
+    LongBuffer getKeys() {
+        return keys.duplicate();
+    }
+
+    IntBuffer getRecords() {
+        return records.duplicate();
+    }
+
+    ByteBuffer getArena() {
+        return arena.duplicate();
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        if (! (o instanceof Variant)) {
+            return false;
+        }
+        Variant v = (Variant) o;
+        return contains(v.getChr(), v.getPos(), v.getRef(), v.getAlt());
+    }
+
+    /**
+     * Look up a variant without allocating any objects.
+     * @return true if ClinVar has a record with this contig, position, ref and alt allele
+     */
+    public boolean contains(String chr, int pos, String ref, String alt) {
+        return findSlot(chr, pos, ref, alt) >= 0;
+    }
+
+    /**
+     * @return the significance of the ClinVar record, or null if there is no such record
+     */
+    public ClinvarSignificance getSignificance(String chr, int pos, String ref, String alt) {
+        int slot = findSlot(chr, pos, ref, alt);
+        return slot < 0 ? null : SIGNIFICANCES[arena.get(records.get(slot))];
+    }
+
+    private int findSlot(String chr, int pos, String ref, String alt) {
+        int contig = contigs.getId(chr);
+        if (contig == ContigDictionary.UNKNOWN) {
+            return -1;
+        }
+        int suffix = 0;
+        int prefix = 0;
+        if (trimAlleles) {
+            suffix = Alleles.commonSuffix(ref, alt);
+            prefix = Alleles.commonPrefix(ref, alt, suffix);
+        }
+        int refEnd = ref.length() - suffix;
+        int altEnd = alt.length() - suffix;
+        long key = key(contig, pos + prefix);
+        if (sorted) {
+            return findSorted(key, ref, prefix, refEnd, alt, prefix, altEnd);
+        }
+        int slot = slot(key, alleleHash(ref, prefix, refEnd, alt, prefix, altEnd), mask);
+        while (keys.get(slot) != EMPTY) {
+            if (keys.get(slot) == key
+                    && allelesEqual(arena, records.get(slot), ref, prefix, refEnd, alt, prefix, altEnd)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private int findSorted(long key, String ref, int refStart, int refEnd, String alt, int altStart, int altEnd) {
+        int low = 0;
+        int high = capacity;
+        // first index with keys[index] >= key
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (keys.get(middle) < key) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        for (int i = low; i < capacity && keys.get(i) == key; i++) {
+            if (allelesEqual(arena, records.get(i), ref, refStart, refEnd, alt, altStart, altEnd)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public Iterator<Variant> iterator() {
+        return new Iterator<Variant>() {
+            private int slot = nextSlot(0);
+
+            private int nextSlot(int from) {
+                int s = from;
+                while (s < capacity && keys.get(s) == EMPTY) {
+                    s++;
+                }
+                return s;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return slot < capacity;
+            }
+
+            @Override
+            public Variant next() {
+                if (! hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Variant v = decode(slot);
+                slot = nextSlot(slot + 1);
+                return v;
+            }
+        };
+    }
+
+    private Variant decode(int slot) {
+        long key = keys.get(slot);
+        String chr = contigs.getName((int) (key >>> 32));
+        int pos = (int) key;
+        int p = records.get(slot);
+        ClinvarSignificance sig = SIGNIFICANCES[arena.get(p++)];
+        int refLen = readVarint(arena, p);
+        p += varintSize(refLen);
+        String ref = readAscii(arena, p, refLen);
+        p += refLen;
+        int altLen = readVarint(arena, p);
+        p += varintSize(altLen);
+        String alt = readAscii(arena, p, altLen);
+        return new Variant(chr, pos, ref, alt, sig);
+    }
+
+    private static String readAscii(ByteBuffer arena, int p, int len) {
+        byte[] bytes = new byte[len];
+        for (int i = 0; i < len; i++) {
+            bytes[i] = arena.get(p + i);
+        }
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+
+    private static long key(int contig, int pos) {
+        return ((long) contig << 32) | (pos & 0xFFFFFFFFL);
+    }
+
+    private static int slot(long key, int alleleHash, int mask) {
+        long h = (key ^ ((long) alleleHash << 16)) * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    private static int alleleHash(CharSequence ref, int refStart, int refEnd, CharSequence alt, int altStart, int altEnd) {
+        int h = 1;
+        for (int i = refStart; i < refEnd; i++) {
+            h = 31 * h + ref.charAt(i);
+        }
+        h = 31 * h + '>';
+        for (int i = altStart; i < altEnd; i++) {
+            h = 31 * h + alt.charAt(i);
+        }
+        return h;
+    }
+
+    /** Same as {@link #alleleHash(CharSequence, int, int, CharSequence, int, int)} for a record in the arena. */
+    private static int alleleHash(ByteBuffer arena, int record) {
+        int p = record + 1;
+        int refLen = readVarint(arena, p);
+        p += varintSize(refLen);
+        int h = 1;
+        for (int i = 0; i < refLen; i++) {
+            h = 31 * h + (arena.get(p++) & 0xFF);
+        }
+        h = 31 * h + '>';
+        int altLen = readVarint(arena, p);
+        p += varintSize(altLen);
+        for (int i = 0; i < altLen; i++) {
+            h = 31 * h + (arena.get(p++) & 0xFF);
+        }
+        return h;
+    }
+
+    private static boolean allelesEqual(ByteBuffer arena, int record, CharSequence ref, int refStart, int refEnd,
+                                        CharSequence alt, int altStart, int altEnd) {
+        int p = record + 1;
+        p = regionEquals(arena, p, ref, refStart, refEnd);
+        return p >= 0 && regionEquals(arena, p, alt, altStart, altEnd) >= 0;
+    }
+
+    /** @return the offset after the length-prefixed region if it equals {@code s[start, end)}, otherwise -1 */
+    private static int regionEquals(ByteBuffer arena, int p, CharSequence s, int start, int end) {
+        int len = readVarint(arena, p);
+        if (len != end - start) {
+            return -1;
+        }
+        p += varintSize(len);
+        for (int i = 0; i < len; i++) {
+            if ((arena.get(p + i) & 0xFF) != s.charAt(start + i)) {
+                return -1;
+            }
+        }
+        return p + len;
+    }
+
+    /** @return true if the records at the two arena offsets have the same alleles */
+    private static boolean allelesEqual(ByteBuffer arena, int a, int b) {
+        int lenA = recordLength(arena, a) - 1;
+        int lenB = recordLength(arena, b) - 1;
+        if (lenA != lenB) {
+            return false;
+        }
+        for (int i = 1; i <= lenA; i++) {
+            if (arena.get(a + i) != arena.get(b + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int recordLength(ByteBuffer arena, int record) {
+        int p = record + 1;
+        int refLen = readVarint(arena, p);
+        p += varintSize(refLen) + refLen;
+        int altLen = readVarint(arena, p);
+        p += varintSize(altLen) + altLen;
+        return p - record;
+    }
+
+    private static int readVarint(ByteBuffer arena, int p) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = arena.get(p++);
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    private static int varintSize(int value) {
+        int n = 1;
+        while ((value >>>= 7) != 0) {
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * Collects the ClinVar records; {@link #build()} then puts them into the hash table. If several records have
+     * the same contig, position and alleles, the first one is kept.
+     */
+    public static class Builder {
+        private final ContigDictionary contigs = new ContigDictionary();
+        private final boolean trimAlleles;
+        private long[] keys = new long[1024];
+        private int[] records = new int[1024];
+        private byte[] arena = new byte[8192];
+        private int n = 0;
+        private int arenaSize = 0;
+        /** CLNSIG values that the tokenizers did not recognize, and the number of records with each. */
+        private final Map<String, Integer> unknownSignificances = new TreeMap<>();
+
+        /** Builder that stores the alleles as they are. */
+        public Builder() {
+            this(false);
+        }
+
+        /** @param trimAlleles if true, the alleles are trimmed to their minimal representation (see {@link Alleles}) */
+        public Builder(boolean trimAlleles) {
+            this.trimAlleles = trimAlleles;
+        }
+
+        public Builder add(String chr, int pos, String ref, String alt, ClinvarSignificance sig) {
+            int suffix = 0;
+            int prefix = 0;
+            if (trimAlleles) {
+                suffix = Alleles.commonSuffix(ref, alt);
+                prefix = Alleles.commonPrefix(ref, alt, suffix);
+            }
+            int refEnd = ref.length() - suffix;
+            int altEnd = alt.length() - suffix;
+            addKey(contigs.getOrAddId(chr), pos + prefix);
+            ensureArenaCapacity(1 + 10 + ref.length() + alt.length());
+            arena[arenaSize++] = (byte) sig.ordinal();
+            writeAllele(ref, prefix, refEnd);
+            writeAllele(alt, prefix, altEnd);
+            return this;
+        }
+
+        /**
+         * Add a record whose contig and alleles are given as ASCII bytes in a buffer, e.g., as found by a
+         * {@link VcfLineTokenizer}. No objects are created unless the contig is not a chromosome.
+         */
+        Builder add(ByteBuffer buf, int chrStart, int chrEnd, int pos, int refStart, int refEnd,
+                    int altStart, int altEnd, ClinvarSignificance sig) {
+            int contig = ContigDictionary.canonicalId(buf, chrStart, chrEnd);
+            if (contig == ContigDictionary.UNKNOWN) {
+                contig = contigs.getOrAddId(VcfLineTokenizer.decode(buf, chrStart, chrEnd));
+            }
+            if (trimAlleles) {
+                int suffix = Alleles.commonSuffix(buf, refStart, refEnd, altStart, altEnd);
+                int prefix = Alleles.commonPrefix(buf, refStart, refEnd, altStart, altEnd, suffix);
+                refEnd -= suffix;
+                altEnd -= suffix;
+                refStart += prefix;
+                altStart += prefix;
+                pos += prefix;
+            }
+            addKey(contig, pos);
+            ensureArenaCapacity(1 + 10 + (refEnd - refStart) + (altEnd - altStart));
+            arena[arenaSize++] = (byte) sig.ordinal();
+            writeAllele(buf, refStart, refEnd);
+            writeAllele(buf, altStart, altEnd);
+            return this;
+        }
+
+        private void addKey(int contig, int pos) {
+            ensureRecordCapacity(n + 1);
+            keys[n] = key(contig, pos);
+            records[n] = arenaSize;
+            n++;
+        }
+
+        /**
+         * Append all records of another builder (e.g., of the next chunk of the VCF file) after the records of this
+         * builder, so that {@link #build()} keeps the same records as if they had been added in this order.
+         */
+        Builder addAll(Builder other) {
+            if (other.trimAlleles != trimAlleles) {
+                throw new IllegalArgumentException("Cannot merge builders with different allele trimming");
+            }
+            // chromosomes have the same id in both builders; other contigs may not
+            List<String> otherContigs = other.contigs.getOtherNames();
+            int[] contigIds = new int[ContigDictionary.MT + otherContigs.size() + 1];
+            for (int id = 1; id <= ContigDictionary.MT; id++) {
+                contigIds[id] = id;
+            }
+            for (int i = 0; i < otherContigs.size(); i++) {
+                contigIds[ContigDictionary.MT + i + 1] = contigs.getOrAddId(otherContigs.get(i));
+            }
+            ensureRecordCapacity(n + other.n);
+            ensureArenaCapacity(other.arenaSize);
+            for (int i = 0; i < other.n; i++) {
+                long key = other.keys[i];
+                keys[n] = key(contigIds[(int) (key >>> 32)], (int) key);
+                records[n] = other.records[i] + arenaSize;
+                n++;
+            }
+            System.arraycopy(other.arena, 0, arena, arenaSize, other.arenaSize);
+            arenaSize += other.arenaSize;
+            countUnknownSignificances(other.unknownSignificances);
+            return this;
+        }
+
+        /** @param counts CLNSIG values that were not recognized, see {@link VcfLineTokenizer#getUnknownSignificances()} */
+        void countUnknownSignificances(Map<String, Integer> counts) {
+            counts.forEach((value, count) -> unknownSignificances.merge(value, count, Integer::sum));
+        }
+
+        /** @return the CLNSIG values that were not recognized in the records added so far, and their counts */
+        Map<String, Integer> getUnknownSignificances() {
+            return unknownSignificances;
+        }
+
+        private void ensureRecordCapacity(int capacity) {
+            if (capacity > keys.length) {
+                int newLength = Math.max(2 * keys.length, capacity);
+                keys = Arrays.copyOf(keys, newLength);
+                records = Arrays.copyOf(records, newLength);
+            }
+        }
+
+        private void writeAllele(ByteBuffer buf, int start, int end) {
+            writeLength(end - start);
+            for (int i = start; i < end; i++) {
+                arena[arenaSize++] = buf.get(i);
+            }
+        }
+
+        private void writeLength(int len) {
+            int v = len;
+            while ((v & ~0x7F) != 0) {
+                arena[arenaSize++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            arena[arenaSize++] = (byte) v;
+        }
+
+        private void writeAllele(CharSequence allele, int start, int end) {
+            writeLength(end - start);
+            for (int i = start; i < end; i++) {
+                arena[arenaSize++] = (byte) allele.charAt(i);
+            }
+        }
+
+        private void ensureArenaCapacity(int extra) {
+            if (arenaSize + extra > arena.length) {
+                arena = Arrays.copyOf(arena, Math.max(2 * arena.length, arenaSize + extra));
+            }
+        }
+
+        public ClinvarIndex build() {
+            int capacity = 16;
+            while (capacity < 2 * n) {
+                capacity <<= 1;
+            }
+            int mask = capacity - 1;
+            long[] tableKeys = new long[capacity];
+            int[] tableRecords = new int[capacity];
+            ByteBuffer arenaBuffer = ByteBuffer.wrap(Arrays.copyOf(arena, arenaSize));
+            int size = 0;
+            for (int i = 0; i < n; i++) {
+                int slot = slot(keys[i], alleleHash(arenaBuffer, records[i]), mask);
+                boolean duplicate = false;
+                while (tableKeys[slot] != EMPTY) {
+                    if (tableKeys[slot] == keys[i] && allelesEqual(arenaBuffer, tableRecords[slot], records[i])) {
+                        duplicate = true;
+                        break;
+                    }
+                    slot = (slot + 1) & mask;
+                }
+                if (! duplicate) {
+                    tableKeys[slot] = keys[i];
+                    tableRecords[slot] = records[i];
+                    size++;
+                }
+            }
+            // duplicates are left in the arena; they are rare in ClinVar
+            return new ClinvarIndex(new ContigDictionary(contigs.getOtherNames()), LongBuffer.wrap(tableKeys),
+                    IntBuffer.wrap(tableRecords), arenaBuffer, size, false, trimAlleles);
+        }
+
+        /**
+         * Build an index whose keys are sorted by contig and position, without empty slots. This needs less memory
+         * than the hash table and is meant for small sets of records, e.g., those in the regions of a corpus.
+         */
+        public ClinvarIndex buildSorted() {
+            ByteBuffer arenaBuffer = ByteBuffer.wrap(Arrays.copyOf(arena, arenaSize));
+            // stable, so that the first of several equal records comes first
+            Integer[] order = new Integer[n];
+            for (int i = 0; i < n; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> Long.compare(keys[a], keys[b]));
+            long[] sortedKeys = new long[n];
+            int[] sortedRecords = new int[n];
+            int size = 0;
+            int groupStart = 0;
+            for (Integer i : order) {
+                if (size > 0 && sortedKeys[size - 1] != keys[i]) {
+                    groupStart = size;
+                }
+                boolean duplicate = false;
+                for (int j = groupStart; j < size && ! duplicate; j++) {
+                    duplicate = allelesEqual(arenaBuffer, sortedRecords[j], records[i]);
+                }
+                if (! duplicate) {
+                    sortedKeys[size] = keys[i];
+                    sortedRecords[size] = records[i];
+                    size++;
+                }
+            }
+            return new ClinvarIndex(new ContigDictionary(contigs.getOtherNames()),
+                    LongBuffer.wrap(Arrays.copyOf(sortedKeys, size)), IntBuffer.wrap(Arrays.copyOf(sortedRecords, size)),
+                    arenaBuffer, size, true, trimAlleles);
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package org.monarchinitiative.phenobfuscator.variant;
+
+import org.monarchinitiative.phenobfuscator.io.Checksums;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Binary file with the tables of a {@link ClinvarIndex}, so that the ClinVar VCF file only needs to be parsed once.
+ * The file records the CRC32 and size of the VCF file it was made from, the significances of the records that
+ * were kept and whether the alleles were trimmed, and is only used if these still match. The tables are
+ * memory-mapped and queried in place, so that loading the index does not depend on the number of records.
+ * <p>
+ * Layout (big-endian): magic, format version, source CRC32 (long), source size (long), significance filter (bit
+ * mask of the ordinals of the kept significances), allele trimming (0 or 1), number of contigs c that are not
+ * chromosomes, c x contig name (length + UTF-8 bytes),
+ * number of records, table capacity t, arena size a, padding to a multiple of 8 bytes, t x key (long),
+ * t x record offset (int), a arena bytes.
+ */
+public class ClinvarIndexFile {
+    private static final Logger logger = LoggerFactory.getLogger(ClinvarIndexFile.class);
+    /** "CVIX" */
+    private static final int MAGIC = 0x43564958;
+    private static final int FORMAT_VERSION = 3;
+
+    private ClinvarIndexFile() {
+    }
+
+    /**
+     * Map the index file if it is valid for the VCF file; otherwise parse the VCF file and (re)write the index file.
+     * @param vcfPath path to the ClinVar VCF file
+     * @param indexPath path to the index file (need not exist)
+     * @param significances significances of the records that are kept
+     * @param trimAlleles whether the alleles are trimmed to their minimal representation
+     * @param threads number of threads used to parse the VCF file if the index has to be (re)built
+     * @return the {@link ClinvarIndex} for the VCF file
+     * @throws IOException if the VCF file cannot be read or the index file cannot be written
+     * @throws org.monarchinitiative.phenol.base.PhenolRuntimeException if the VCF file cannot be parsed completely;
+     * the index file is then not written
+     */
+    public static ClinvarIndex loadOrCreate(Path vcfPath, Path indexPath, Set<ClinvarSignificance> significances,
+                                            boolean trimAlleles, int threads) throws IOException {
+        long checksum = Checksums.crc32(vcfPath);
+        long size = Files.size(vcfPath);
+        if (Files.exists(indexPath)) {
+            ClinvarIndex index = read(indexPath, checksum, size, significances, trimAlleles);
+            if (index != null) {
+                logger.info("Mapped ClinVar index {} ({} variants)", indexPath, index.size());
+                return index;
+            }
+            logger.info("ClinVar index {} does not match {}; it will be rebuilt", indexPath, vcfPath);
+        }
+        ClinvarIndex index = new ClinvarParser(vcfPath.toString(), threads, significances, null, trimAlleles).getIndex();
+        write(index, checksum, size, significances, indexPath);
+        logger.info("Wrote ClinVar index {} ({} variants)", indexPath, index.size());
+        return index;
+    }
+
+    /**
+     * @param indexPath path to an existing index file
+     * @param checksum expected CRC32 of the source VCF file
+     * @param size expected size of the source VCF file
+     * @param significances expected significance filter
+     * @param trimAlleles expected allele trimming
+     * @return the index (backed by the mapped file), or null if the file was made from a different VCF file or with a
+     * different filter or trimming, or cannot be read
+     * @throws IOException if the index file cannot be opened
+     */
+    public static ClinvarIndex read(Path indexPath, long checksum, long size, Set<ClinvarSignificance> significances,
+                                    boolean trimAlleles) throws IOException {
+        try (FileChannel channel = FileChannel.open(indexPath, StandardOpenOption.READ)) {
+            // the mapping stays valid after the channel is closed
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION
+                    || buffer.getLong() != checksum || buffer.getLong() != size
+                    || buffer.getInt() != mask(significances) || buffer.getInt() != (trimAlleles ? 1 : 0)) {
+                return null;
+            }
+            int contigCount = buffer.getInt();
+            List<String> otherContigs = new ArrayList<>();
+            for (int i = 0; i < contigCount; i++) {
+                byte[] bytes = new byte[buffer.getInt()];
+                buffer.get(bytes);
+                otherContigs.add(new String(bytes, StandardCharsets.UTF_8));
+            }
+            int records = buffer.getInt();
+            int capacity = buffer.getInt();
+            int arenaSize = buffer.getInt();
+            int start = align(buffer.position());
+            LongBuffer keys = slice(buffer, start, 8 * capacity).asLongBuffer();
+            start += 8 * capacity;
+            IntBuffer offsets = slice(buffer, start, 4 * capacity).asIntBuffer();
+            start += 4 * capacity;
+            ByteBuffer arena = slice(buffer, start, arenaSize);
+            return ClinvarIndex.of(otherContigs, keys, offsets, arena, records, trimAlleles);
+        } catch (BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException
+                | NegativeArraySizeException e) {
+            // truncated or corrupt index file
+            logger.warn("Could not read ClinVar index {}: {}", indexPath, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Write the index to a temporary file that is then renamed, so that no partial index is ever mapped.
+     */
+    public static void write(ClinvarIndex index, long checksum, long size, Set<ClinvarSignificance> significances,
+                             Path indexPath) throws IOException {
+        if (index.isSorted()) {
+            throw new IllegalArgumentException("Only hash-table ClinVar indexes can be written to a file");
+        }
+        Path dir = indexPath.toAbsolutePath().getParent();
+        Path tmp = dir.resolve(indexPath.getFileName() + "." + UUID.randomUUID() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(checksum);
+            out.writeLong(size);
+            out.writeInt(mask(significances));
+            out.writeInt(index.isTrimAlleles() ? 1 : 0);
+            List<String> otherContigs = index.getOtherContigNames();
+            out.writeInt(otherContigs.size());
+            for (String contig : otherContigs) {
+                byte[] bytes = contig.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+            LongBuffer keys = index.getKeys();
+            IntBuffer offsets = index.getRecords();
+            ByteBuffer arena = index.getArena();
+            out.writeInt(index.size());
+            out.writeInt(keys.limit());
+            out.writeInt(arena.limit());
+            while (out.size() % 8 != 0) {
+                out.writeByte(0);
+            }
+            for (int i = 0; i < keys.limit(); i++) {
+                out.writeLong(keys.get(i));
+            }
+            for (int i = 0; i < offsets.limit(); i++) {
+                out.writeInt(offsets.get(i));
+            }
+            for (int i = 0; i < arena.limit(); i++) {
+                out.writeByte(arena.get(i));
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        Files.move(tmp, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static int mask(Set<ClinvarSignificance> significances) {
+        int mask = 0;
+        for (ClinvarSignificance significance : significances) {
+            mask |= 1 << significance.ordinal();
+        }
+        return mask;
+    }
+
+    private static int align(int position) {
+        return (position + 7) & ~7;
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int start, int length) {
+        ByteBuffer view = buffer.duplicate();
+        view.limit(Math.addExact(start, length));
+        view.position(start);
+        return view.slice();
+    }
+}
@@ -1,37 +1,153 @@
 package org.monarchinitiative.phenobfuscator.variant;
 
-import com.google.common.collect.ImmutableSet;
+import org.monarchinitiative.phenobfuscator.io.CompressedFiles;
+import org.monarchinitiative.phenol.base.PhenolRuntimeException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.EnumSet;
 import java.util.Set;
 
 public class ClinvarParser {
+    private static final Logger logger = LoggerFactory.getLogger(ClinvarParser.class);
+    private static final int BUFFER_SIZE = 1 << 16;
 
-    Set<Variant> variantSet;
+    private ClinvarIndex index;
 
+    /**
+     * @param path path to the ClinVar VCF file, which may be uncompressed, gzip or BGZF (clinvar.vcf.gz)
+     */
     public ClinvarParser(String path) {
-        parse(path);
-    }
-
-    private void parse(String path) {
-        ImmutableSet.Builder<Variant> builder = new ImmutableSet.Builder<>();
-        try (BufferedReader br = new BufferedReader(new FileReader(path))) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                if (line.startsWith("#"))
-                    continue;
-                Variant var = Variant.fromVcfLine(line);
-                builder.add(var);
+        this(path, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param path path to the ClinVar VCF file, which may be uncompressed, gzip or BGZF (clinvar.vcf.gz)
+     * @param threads number of threads used to parse an uncompressed file or to decompress a BGZF file
+     */
+    public ClinvarParser(String path, int threads) {
+        this(path, threads, EnumSet.allOf(ClinvarSignificance.class));
+    }
+
+    /**
+     * @param path path to the ClinVar VCF file, which may be uncompressed, gzip or BGZF (clinvar.vcf.gz)
+     * @param threads number of threads used to parse an uncompressed file or to decompress a BGZF file
+     * @param significances significances of the records that are kept (all other records are dropped while parsing)
+     */
+    public ClinvarParser(String path, int threads, Set<ClinvarSignificance> significances) {
+        this(path, threads, significances, null);
+    }
+
+    /**
+     * @param path path to the ClinVar VCF file, which may be uncompressed, gzip or BGZF (clinvar.vcf.gz)
+     * @param threads number of threads used to parse an uncompressed file or to decompress a BGZF file
+     * @param significances significances of the records that are kept (all other records are dropped while parsing)
+     * @param regions if not null, only records in these regions are kept, and the index is a sorted array
+     */
+    public ClinvarParser(String path, int threads, Set<ClinvarSignificance> significances, VariantRegions regions) {
+        this(path, threads, significances, regions, false);
+    }
+
+    /**
+     * @param path path to the ClinVar VCF file, which may be uncompressed, gzip or BGZF (clinvar.vcf.gz)
+     * @param threads number of threads used to parse an uncompressed file or to decompress a BGZF file
+     * @param significances significances of the records that are kept (all other records are dropped while parsing)
+     * @param regions if not null, only records in these regions are kept, and the index is a sorted array
+     * @param trimAlleles if true, the alleles of the records and of the lookups are trimmed to their minimal form
+     * @throws PhenolRuntimeException if the file cannot be read completely (e.g., a truncated or corrupt gzip file),
+     * so that a partial index is never used
+     */
+    public ClinvarParser(String path, int threads, Set<ClinvarSignificance> significances, VariantRegions regions,
+                         boolean trimAlleles) {
+        parse(path, threads, significances, regions, trimAlleles);
+    }
+
+    private void parse(String path, int threads, Set<ClinvarSignificance> significances, VariantRegions regions,
+                       boolean trimAlleles) {
+        Path p = Paths.get(path);
+        ClinvarIndex.Builder builder = new ClinvarIndex.Builder(trimAlleles);
+        try {
+            if (threads > 1 && ! CompressedFiles.isCompressed(p)) {
+                builder = ParallelVcfLoader.load(p, threads, significances, regions, trimAlleles);
+            } else {
+                read(p, threads, significances, regions, builder);
             }
         } catch (IOException e) {
-            e.printStackTrace();
+            throw new PhenolRuntimeException("Could not read ClinVar file " + path + ": " + e.getMessage(), e);
+        }
+        // each value once, rather than once per record (and thread)
+        builder.getUnknownSignificances().forEach((value, count) ->
+                logger.warn("{} ClinVar record(s) with unknown CLNSIG value {} are classified as OTHER", count, value));
+        index = regions == null ? builder.build() : builder.buildSorted();
+    }
+
+    /** Read the (possibly compressed) VCF file line by line on the calling thread. */
+    private static void read(Path path, int threads, Set<ClinvarSignificance> significances, VariantRegions regions,
+                             ClinvarIndex.Builder builder) throws IOException {
+        VcfLineTokenizer tokenizer = new VcfLineTokenizer(significances, regions);
+        try (InputStream in = CompressedFiles.open(path, threads)) {
+            byte[] buf = new byte[BUFFER_SIZE];
+            ByteBuffer view = ByteBuffer.wrap(buf);
+            int start = 0; // start of the current line
+            int end = 0; // end of the data in buf
+            int n;
+            while ((n = in.read(buf, end, buf.length - end)) >= 0) {
+                int scan = end;
+                end += n;
+                start = addLines(builder, tokenizer, view, start, scan, end);
+                if (start > 0) {
+                    System.arraycopy(buf, start, buf, 0, end - start);
+                    end -= start;
+                    start = 0;
+                } else if (end == buf.length) {
+                    buf = Arrays.copyOf(buf, 2 * buf.length);
+                    view = ByteBuffer.wrap(buf);
+                }
+            }
+            addLine(builder, tokenizer, view, start, end);
+        }
+        builder.countUnknownSignificances(tokenizer.getUnknownSignificances());
+    }
+
+    /**
+     * Add the complete lines in {@code buf[start, end)} to the builder.
+     * @param scan offset from which to look for line ends (there are none in {@code buf[start, scan)})
+     * @return the start of the incomplete last line (equal to {@code end} if the data ends with a line end)
+     */
+    static int addLines(ClinvarIndex.Builder builder, VcfLineTokenizer tokenizer, ByteBuffer buf, int start, int scan,
+                        int end) {
+        for (int i = scan; i < end; i++) {
+            if (buf.get(i) == '\n') {
+                addLine(builder, tokenizer, buf, start, i);
+                start = i + 1;
+            }
+        }
+        return start;
+    }
+
+    static void addLine(ClinvarIndex.Builder builder, VcfLineTokenizer tokenizer, ByteBuffer buf, int start, int end) {
+        if (end > start && buf.get(end - 1) == '\r') {
+            end--;
+        }
+        if (tokenizer.tokenize(buf, start, end)) {
+            builder.add(buf, tokenizer.getChrStart(), tokenizer.getChrEnd(), tokenizer.getPos(),
+                    tokenizer.getRefStart(), tokenizer.getRefEnd(), tokenizer.getAltStart(), tokenizer.getAltEnd(),
+                    tokenizer.getSignificance());
         }
-        variantSet = builder.build();
     }
 
     public Set<Variant> getVariantSet() {
-        return variantSet;
+        return index;
+    }
+
+    /** @return the ClinVar variants as a compact index that can be queried without creating {@link Variant} objects */
+    public ClinvarIndex getIndex() {
+        return index;
     }
 }
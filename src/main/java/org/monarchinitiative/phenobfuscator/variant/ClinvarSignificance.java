@@ -1,5 +1,24 @@
 package org.monarchinitiative.phenobfuscator.variant;
 
+import java.util.EnumSet;
+
 public enum ClinvarSignificance {
-    PATHOGENIC, LIKELY_PATHOGENIC, VUS, LIKELY_BENIGN, BENIGN, RISK_FACTOR, AFFECTS, OTHER
+    PATHOGENIC, LIKELY_PATHOGENIC, VUS, LIKELY_BENIGN, BENIGN, RISK_FACTOR, AFFECTS, OTHER;
+
+    /** @return true if this is one of the five levels from PATHOGENIC to BENIGN */
+    public boolean isOnPathogenicityScale() {
+        return ordinal() <= BENIGN.ordinal();
+    }
+
+    /**
+     * @param minimum a significance from PATHOGENIC to BENIGN
+     * @return the significances that are at least as pathogenic as {@code minimum}, e.g., PATHOGENIC and
+     * LIKELY_PATHOGENIC for LIKELY_PATHOGENIC
+     */
+    public static EnumSet<ClinvarSignificance> atLeast(ClinvarSignificance minimum) {
+        if (! minimum.isOnPathogenicityScale()) {
+            throw new IllegalArgumentException(minimum + " is not a level of pathogenicity");
+        }
+        return EnumSet.range(PATHOGENIC, minimum);
+    }
 }
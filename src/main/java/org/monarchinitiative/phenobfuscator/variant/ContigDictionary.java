@@ -0,0 +1,173 @@
+package org.monarchinitiative.phenobfuscator.variant;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maps contig names to small int ids, so that variants can be compared by id instead of by name. The human
+ * chromosomes have fixed ids (1-22, X = 23, Y = 24, MT = 25) and are recognized regardless of the naming
+ * convention: "1", "chr1", "CHR1" and the RefSeq accession NC_000001.11 all get id 1, and "chrM", "M" and "MT" all
+ * get id 25. Other contigs (e.g., unplaced scaffolds) get ids after these in the order in which they are added.
+ */
+public class ContigDictionary {
+    /** Canonical names of the human chromosomes, indexed by id - 1. */
+    private static final String[] CANONICAL = {"1", "2", "3", "4", "5", "6", "7", "8", "9", "10", "11", "12",
+            "13", "14", "15", "16", "17", "18", "19", "20", "21", "22", "X", "Y", "MT"};
+    public static final int X = 23;
+    public static final int Y = 24;
+    public static final int MT = 25;
+    /** Id returned for names that are not known. */
+    public static final int UNKNOWN = 0;
+
+    private final Map<String, Integer> otherIds = new HashMap<>();
+    private final List<String> otherNames = new ArrayList<>();
+
+    public ContigDictionary() {
+    }
+
+    /** @param otherNames names of the non-chromosome contigs, in the order of their ids */
+    public ContigDictionary(List<String> otherNames) {
+        for (String name : otherNames) {
+            getOrAddId(name);
+        }
+    }
+
+    /**
+     * @param name a contig name such as 1, chr1, NC_000001.11, chrM or MT
+     * @return the id of the human chromosome, or {@link #UNKNOWN} if the name does not denote one
+     */
+    public static int canonicalId(CharSequence name) {
+        int start = 0;
+        int end = name.length();
+        if (end - start > 3 && (name.charAt(0) | 0x20) == 'c' && (name.charAt(1) | 0x20) == 'h'
+                && (name.charAt(2) | 0x20) == 'r') {
+            start = 3;
+        } else if (end > 7 && name.charAt(0) == 'N' && name.charAt(1) == 'C' && name.charAt(2) == '_') {
+            return refseqId(name);
+        }
+        if (end - start == 1) {
+            return chromosomeId(name.charAt(start), '\0');
+        } else if (end - start == 2) {
+            return chromosomeId(name.charAt(start), name.charAt(start + 1));
+        }
+        return UNKNOWN;
+    }
+
+    /** Same as {@link #canonicalId(CharSequence)} for ASCII bytes in a buffer; does not allocate. */
+    public static int canonicalId(ByteBuffer buf, int start, int end) {
+        if (end - start > 3 && (buf.get(start) | 0x20) == 'c' && (buf.get(start + 1) | 0x20) == 'h'
+                && (buf.get(start + 2) | 0x20) == 'r') {
+            start += 3;
+        } else if (end - start > 7 && buf.get(start) == 'N' && buf.get(start + 1) == 'C' && buf.get(start + 2) == '_') {
+            int accession = 0;
+            int i = start + 3;
+            for (; i < end && buf.get(i) != '.'; i++) {
+                int digit = buf.get(i) - '0';
+                if (digit < 0 || digit > 9 || accession > 100_000_000) {
+                    return UNKNOWN;
+                }
+                accession = 10 * accession + digit;
+            }
+            return refseqId(accession);
+        }
+        if (end - start == 1) {
+            return chromosomeId((char) buf.get(start), '\0');
+        } else if (end - start == 2) {
+            return chromosomeId((char) buf.get(start), (char) buf.get(start + 1));
+        }
+        return UNKNOWN;
+    }
+
+    private static int refseqId(CharSequence name) {
+        int accession = 0;
+        for (int i = 3; i < name.length() && name.charAt(i) != '.'; i++) {
+            int digit = name.charAt(i) - '0';
+            if (digit < 0 || digit > 9 || accession > 100_000_000) {
+                return UNKNOWN;
+            }
+            accession = 10 * accession + digit;
+        }
+        return refseqId(accession);
+    }
+
+    /** NC_000001-NC_000024 are chromosomes 1-22, X and Y; NC_012920 is the mitochondrial genome. */
+    private static int refseqId(int accession) {
+        if (accession >= 1 && accession <= 24) {
+            return accession;
+        }
+        return accession == 12920 ? MT : UNKNOWN;
+    }
+
+    /** @param c2 second character, or '\0' for one-character names */
+    private static int chromosomeId(char c1, char c2) {
+        if (c2 == '\0') {
+            if (c1 >= '1' && c1 <= '9') {
+                return c1 - '0';
+            }
+            switch (c1 | 0x20) {
+                case 'x':
+                    return X;
+                case 'y':
+                    return Y;
+                case 'm':
+                    return MT;
+                default:
+                    return UNKNOWN;
+            }
+        }
+        if (c1 >= '1' && c1 <= '9' && c2 >= '0' && c2 <= '9') {
+            int id = 10 * (c1 - '0') + (c2 - '0');
+            return id <= 22 ? id : UNKNOWN;
+        }
+        if ((c1 | 0x20) == 'm' && (c2 | 0x20) == 't') {
+            return MT;
+        }
+        return UNKNOWN;
+    }
+
+    /** @return the id of the contig, or {@link #UNKNOWN} if it is neither a chromosome nor has been added */
+    public int getId(String name) {
+        int id = canonicalId(name);
+        if (id != UNKNOWN) {
+            return id;
+        }
+        Integer other = otherIds.get(name);
+        return other == null ? UNKNOWN : other;
+    }
+
+    /** Same as {@link #getId(String)} for ASCII bytes; only allocates for contigs that are not chromosomes. */
+    public int getId(ByteBuffer buf, int start, int end) {
+        int id = canonicalId(buf, start, end);
+        if (id != UNKNOWN || otherIds.isEmpty()) {
+            return id;
+        }
+        return getId(VcfLineTokenizer.decode(buf, start, end));
+    }
+
+    /** @return the id of the contig; contigs that are not chromosomes are added if needed */
+    public int getOrAddId(String name) {
+        int id = getId(name);
+        if (id == UNKNOWN) {
+            id = CANONICAL.length + otherNames.size() + 1;
+            otherIds.put(name, id);
+            otherNames.add(name);
+        }
+        return id;
+    }
+
+    /** @return the canonical name of a chromosome, or the name under which another contig was added */
+    public String getName(int id) {
+        if (id >= 1 && id <= CANONICAL.length) {
+            return CANONICAL[id - 1];
+        }
+        return otherNames.get(id - CANONICAL.length - 1);
+    }
+
+    /** @return the names of the contigs that are not chromosomes, in the order of their ids */
+    public List<String> getOtherNames() {
+        return new ArrayList<>(otherNames);
+    }
+}
@@ -0,0 +1,161 @@
+package org.monarchinitiative.phenobfuscator.variant;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Parses an uncompressed VCF file on several threads. The file is split at line boundaries into chunks of a few
+ * MB, each chunk is memory-mapped and parsed into its own {@link ClinvarIndex.Builder} on a fork-join pool, and the
+ * partial builders are merged in file order. Because the records are merged in the order of the file, the index
+ * that is built from the merged builder is the same as the index of the sequential parser (of duplicate records,
+ * the first one is kept).
+ */
+class ParallelVcfLoader {
+    private static final long MIN_CHUNK_SIZE = 1 << 20;
+    private static final long MAX_CHUNK_SIZE = 1 << 26;
+    private static final int CHUNKS_PER_THREAD = 4;
+    private static final int SCAN_SIZE = 1 << 16;
+
+    private ParallelVcfLoader() {
+    }
+
+    /**
+     * @param path an uncompressed VCF file
+     * @param threads number of threads
+     * @param significances significances of the records that are kept
+     * @param regions if not null, only records in these regions are kept
+     * @param trimAlleles whether the alleles are trimmed to their minimal representation
+     * @return a builder with all kept records of the file in file order
+     * @throws IOException if the file cannot be read
+     */
+    static ClinvarIndex.Builder load(Path path, int threads, Set<ClinvarSignificance> significances,
+                                     VariantRegions regions, boolean trimAlleles) throws IOException {
+        long size = Files.size(path);
+        long chunkSize = Math.min(MAX_CHUNK_SIZE, Math.max(MIN_CHUNK_SIZE, size / (threads * CHUNKS_PER_THREAD)));
+        return load(path, threads, chunkSize, significances, regions, trimAlleles);
+    }
+
+    /**
+     * Same as {@link #load(Path, int, Set, VariantRegions, boolean)} with a given chunk size (e.g., a few bytes, so
+     * that a small file is split into many chunks).
+     */
+    static ClinvarIndex.Builder load(Path path, int threads, long chunkSize, Set<ClinvarSignificance> significances,
+                                     VariantRegions regions, boolean trimAlleles) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long[] boundaries = chunkBoundaries(channel, chunkSize);
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                return pool.invoke(new ChunkTask(channel, boundaries, significances, regions, trimAlleles, 0,
+                        boundaries.length - 1));
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    /** @return the start of each chunk (at the start of a line) and, as the last element, the size of the file */
+    private static long[] chunkBoundaries(FileChannel channel, long chunkSize) throws IOException {
+        long size = channel.size();
+        List<Long> boundaries = new ArrayList<>();
+        boundaries.add(0L);
+        long previous = 0;
+        for (long nominal = chunkSize; nominal < size; nominal += chunkSize) {
+            if (nominal <= previous) {
+                continue; // the previous chunk ended in a long line
+            }
+            long start = nextLineStart(channel, nominal, size);
+            if (start < size) {
+                boundaries.add(start);
+                previous = start;
+            }
+        }
+        boundaries.add(size);
+        return boundaries.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    /** @return the offset after the first line end at or after {@code position - 1}, or {@code size} if there is none */
+    private static long nextLineStart(FileChannel channel, long position, long size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(SCAN_SIZE);
+        long offset = position - 1;
+        while (offset < size) {
+            buffer.clear();
+            int n = channel.read(buffer, offset);
+            if (n <= 0) {
+                break;
+            }
+            for (int i = 0; i < n; i++) {
+                if (buffer.get(i) == '\n') {
+                    return offset + i + 1;
+                }
+            }
+            offset += n;
+        }
+        return size;
+    }
+
+    /** Parses the chunks {@code [from, to)}; the builder of the left half absorbs the builder of the right half. */
+    private static class ChunkTask extends RecursiveTask<ClinvarIndex.Builder> {
+        private static final long serialVersionUID = 1L;
+        private final FileChannel channel;
+        private final long[] boundaries;
+        private final Set<ClinvarSignificance> significances;
+        private final VariantRegions regions;
+        private final boolean trimAlleles;
+        private final int from;
+        private final int to;
+
+        ChunkTask(FileChannel channel, long[] boundaries, Set<ClinvarSignificance> significances,
+                  VariantRegions regions, boolean trimAlleles, int from, int to) {
+            this.channel = channel;
+            this.boundaries = boundaries;
+            this.significances = significances;
+            this.regions = regions;
+            this.trimAlleles = trimAlleles;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected ClinvarIndex.Builder compute() {
+            if (to - from == 1) {
+                return parseChunk(boundaries[from], boundaries[to]);
+            }
+            int middle = (from + to) >>> 1;
+            ChunkTask left = new ChunkTask(channel, boundaries, significances, regions, trimAlleles, from, middle);
+            ChunkTask right = new ChunkTask(channel, boundaries, significances, regions, trimAlleles, middle, to);
+            left.fork();
+            ClinvarIndex.Builder rightBuilder = right.compute();
+            return left.join().addAll(rightBuilder);
+        }
+
+        private ClinvarIndex.Builder parseChunk(long start, long end) {
+            ClinvarIndex.Builder builder = new ClinvarIndex.Builder(trimAlleles);
+            VcfLineTokenizer tokenizer = new VcfLineTokenizer(significances, regions);
+            try {
+                // the lines are tokenized in the mapped buffer, without copying the chunk to the heap
+                MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+                int size = mapped.limit();
+                int rest = ClinvarParser.addLines(builder, tokenizer, mapped, 0, 0, size);
+                // only the last chunk can end without a line end
+                ClinvarParser.addLine(builder, tokenizer, mapped, rest, size);
+                builder.countUnknownSignificances(tokenizer.getUnknownSignificances());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return builder;
+        }
+    }
+}
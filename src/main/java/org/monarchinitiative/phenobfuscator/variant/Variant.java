@@ -4,14 +4,19 @@ package org.monarchinitiative.phenobfuscator.variant;
 
 import org.phenopackets.schema.v1.core.VcfAllele;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.Objects;
 
 /**
  * Simple representation of a VCF-encoded variant that we can use to check whether a phenopacket references
- * a ClinVar pathogenic variant or not.
+ * a ClinVar pathogenic variant or not. Variants on human chromosomes are compared by their {@link ContigDictionary}
+ * id, so that 1:100 A>G and chr1:100 A>G are equal.
  */
 public class Variant {
     private final String chr;
+    /** Id of the chromosome, or {@link ContigDictionary#UNKNOWN} for other contigs (compared by name). */
+    private final int contigId;
     private final int pos;
     private final String ref;
     private final String alt;
@@ -20,6 +25,7 @@ public class Variant {
 
      Variant(String chr, int p, String r, String a, ClinvarSignificance sig) {
         this.chr = chr;
+        this.contigId = ContigDictionary.canonicalId(chr);
         this.pos = p;
         this.ref = r;
         this.alt = a;
@@ -27,6 +33,40 @@ public class Variant {
     }
 
 
+    public String getChr() {
+        return chr;
+    }
+
+    public int getPos() {
+        return pos;
+    }
+
+    public String getRef() {
+        return ref;
+    }
+
+    public String getAlt() {
+        return alt;
+    }
+
+    public ClinvarSignificance getSignificance() {
+        return cvsig;
+    }
+
+    /**
+     * @return this variant with the bases that ref and alt share at their end and start removed (see {@link Alleles}),
+     * e.g. 1:100 AGA>AG becomes 1:101 GA>G
+     */
+    public Variant trimmed() {
+        int suffix = Alleles.commonSuffix(ref, alt);
+        int prefix = Alleles.commonPrefix(ref, alt, suffix);
+        if (suffix == 0 && prefix == 0) {
+            return this;
+        }
+        return new Variant(chr, pos + prefix, ref.substring(prefix, ref.length() - suffix),
+                alt.substring(prefix, alt.length() - suffix), cvsig);
+    }
+
     public static Variant fromPhenopacketVariant(org.phenopackets.schema.v1.core.Variant var) {
          VcfAllele allele = var.getVcfAllele();
          return new Variant(allele.getChr(), allele.getPos(), allele.getRef(), allele.getAlt(), ClinvarSignificance.OTHER);
@@ -34,50 +74,15 @@ public class Variant {
 
 
     public static Variant fromVcfLine(String line) {
-        String [] fields = line.split("\t");
-        String chr = fields[0];
-        int pos = Integer.parseInt(fields[1]);
-        String ref = fields[3];
-        String alt = fields[4];
-        String info = fields[7];
-        ClinvarSignificance cvsig = extractClinVarSig(info);
-        return new Variant(chr, pos, ref, alt, cvsig);
-    }
-
-    private static ClinvarSignificance extractClinVarSig(String info) {
-        String [] fields = info.split(";");
-        for (String f : fields) {
-            if (f.startsWith("CLNSIG=")) {
-                String sg = f.substring(7);
-                switch (sg.toUpperCase()) {
-                    case "BENIGN":
-                        return ClinvarSignificance.BENIGN;
-                    case "LIKELY_BENIGN":
-                    case "BENIGN/LIKELY_BENIGN":
-                        return ClinvarSignificance.LIKELY_BENIGN;
-                    case "PATHOGENIC":
-                    case "PATHOGENIC,_RISK_FACTOR":
-                        return ClinvarSignificance.PATHOGENIC;
-                    case "LIKELY_PATHOGENIC":
-                    case "PATHOGENIC/LIKELY_PATHOGENIC":
-                        return ClinvarSignificance.LIKELY_PATHOGENIC;
-                    case "UNCERTAIN_SIGNIFICANCE":
-                    case "CONFLICTING_INTERPRETATIONS_OF_PATHOGENICITY":
-                    case "NOT_PROVIDED":
-                        return ClinvarSignificance.VUS;
-                    case "RISK_FACTOR":
-                        return ClinvarSignificance.RISK_FACTOR;
-                    case "AFFECTS":
-                    case "ASSOCIATION":
-                        return ClinvarSignificance.AFFECTS;
-
-                    default:
-                        System.err.println("Could not id constant:"+ sg);
-                        return ClinvarSignificance.OTHER;
-                }
-            }
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        VcfLineTokenizer tokenizer = new VcfLineTokenizer();
+        if (! tokenizer.tokenize(ByteBuffer.wrap(bytes), 0, bytes.length)) {
+            throw new IllegalArgumentException("Not a VCF record: " + line);
         }
-        return ClinvarSignificance.BENIGN;
+        String chr = new String(bytes, tokenizer.getChrStart(), tokenizer.getChrEnd() - tokenizer.getChrStart(), StandardCharsets.UTF_8);
+        String ref = new String(bytes, tokenizer.getRefStart(), tokenizer.getRefEnd() - tokenizer.getRefStart(), StandardCharsets.UTF_8);
+        String alt = new String(bytes, tokenizer.getAltStart(), tokenizer.getAltEnd() - tokenizer.getAltStart(), StandardCharsets.UTF_8);
+        return new Variant(chr, tokenizer.getPos(), ref, alt, tokenizer.getSignificance());
     }
 
     @Override
@@ -86,13 +91,14 @@ public class Variant {
         if (o == null || getClass() != o.getClass()) return false;
         Variant variant = (Variant) o;
         return pos == variant.pos &&
-                Objects.equals(chr, variant.chr) &&
+                contigId == variant.contigId &&
+                (contigId != ContigDictionary.UNKNOWN || Objects.equals(chr, variant.chr)) &&
                 Objects.equals(ref, variant.ref) &&
                 Objects.equals(alt, variant.alt);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(chr, pos, ref, alt);
+        return Objects.hash(contigId != ContigDictionary.UNKNOWN ? contigId : chr, pos, ref, alt);
     }
 }
@@ -0,0 +1,109 @@
+package org.monarchinitiative.phenobfuscator.variant;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Genomic regions around the variants of a phenopacket corpus. When ClinVar is loaded for a corpus, only records
+ * in these regions are indexed, so that the size of the index depends on the corpus rather than on ClinVar. Each
+ * variant position is padded by {@link #PADDING} bases on both sides and overlapping windows are merged; the
+ * windows of each contig are stored as sorted arrays and queried by binary search. Contigs are matched by their
+ * {@link ContigDictionary} id, so that regions on "chr1" contain ClinVar records on "1". The regions are immutable
+ * once built and may be queried by several threads.
+ */
+public class VariantRegions {
+    /** Number of bases on either side of a variant position that belong to its region. */
+    public static final int PADDING = 100;
+
+    private final ContigDictionary contigs;
+    /** Indexed by contig id: the sorted, non-overlapping window starts and ends (inclusive), or null. */
+    private final int[][] starts;
+    private final int[][] ends;
+
+    private VariantRegions(ContigDictionary contigs, int[][] starts, int[][] ends) {
+        this.contigs = contigs;
+        this.starts = starts;
+        this.ends = ends;
+    }
+
+    /** @return number of merged windows */
+    public int countWindows() {
+        int n = 0;
+        for (int[] s : starts) {
+            if (s != null) {
+                n += s.length;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Check whether the position of a VCF record is in one of the regions. The contig is given as bytes in a buffer.
+     */
+    boolean contains(ByteBuffer buf, int chrStart, int chrEnd, int pos) {
+        int contig = contigs.getId(buf, chrStart, chrEnd);
+        return contig != ContigDictionary.UNKNOWN && contig < starts.length && starts[contig] != null
+                && contains(contig, pos);
+    }
+
+    private boolean contains(int contig, int pos) {
+        int[] s = starts[contig];
+        // last window that starts at or before pos
+        int low = 0;
+        int high = s.length - 1;
+        int found = -1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (s[middle] <= pos) {
+                found = middle;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return found >= 0 && pos <= ends[contig][found];
+    }
+
+    /**
+     * Collects the variant positions of a corpus. {@link #add(String, int)} may be called from several threads.
+     */
+    public static class Builder {
+        private final ContigDictionary contigs = new ContigDictionary();
+        private final Map<Integer, List<Integer>> positions = new HashMap<>();
+
+        public synchronized Builder add(String chr, int pos) {
+            positions.computeIfAbsent(contigs.getOrAddId(chr), k -> new ArrayList<>()).add(pos);
+            return this;
+        }
+
+        public synchronized VariantRegions build() {
+            int n = positions.keySet().stream().mapToInt(Integer::intValue).max().orElse(0) + 1;
+            int[][] starts = new int[n][];
+            int[][] ends = new int[n][];
+            for (Map.Entry<Integer, List<Integer>> e : positions.entrySet()) {
+                int[] sorted = e.getValue().stream().mapToInt(Integer::intValue).sorted().toArray();
+                int[] s = new int[sorted.length];
+                int[] t = new int[sorted.length];
+                int windows = 0;
+                for (int pos : sorted) {
+                    int start = Math.max(0, pos - PADDING);
+                    int end = pos > Integer.MAX_VALUE - PADDING ? Integer.MAX_VALUE : pos + PADDING;
+                    if (windows > 0 && start <= t[windows - 1] + 1) {
+                        t[windows - 1] = Math.max(t[windows - 1], end);
+                    } else {
+                        s[windows] = start;
+                        t[windows] = end;
+                        windows++;
+                    }
+                }
+                starts[e.getKey()] = Arrays.copyOf(s, windows);
+                ends[e.getKey()] = Arrays.copyOf(t, windows);
+            }
+            return new VariantRegions(new ContigDictionary(contigs.getOtherNames()), starts, ends);
+        }
+    }
+}
@@ -0,0 +1,322 @@
+package org.monarchinitiative.phenobfuscator.variant;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Finds the columns of a ClinVar VCF line that we need (CHROM, POS, REF, ALT and the CLNSIG entry of INFO) by
+ * scanning the bytes of the line once, without splitting it into Strings. After a successful call of
+ * {@link #tokenize(ByteBuffer, int, int)}, the getters return the offsets of the columns in the buffer, which may be a
+ * memory-mapped part of the file. The CLNSIG value
+ * is mapped to a {@link ClinvarSignificance} with a precomputed, case-insensitive lookup table, so that tokenizing
+ * a line does not allocate. Records outside of the {@link VariantRegions} (if given) are skipped right after the
+ * position has been read, and records with a significance that is not accepted as soon as CLNSIG has been decoded.
+ * Values of CLNSIG that are not in the table are counted (see {@link #getUnknownSignificances()}) instead of being
+ * reported for each record. A tokenizer is reused for all lines but must not be shared between threads.
+ */
+class VcfLineTokenizer {
+    private static final byte TAB = '\t';
+    private static final byte[] CLNSIG = "CLNSIG=".getBytes(StandardCharsets.US_ASCII);
+    /** Open-addressing lookup table of the CLNSIG values (upper case) and their significance. */
+    private static final int TABLE_SIZE = 64;
+    private static final byte[][] SIGNIFICANCE_KEYS = new byte[TABLE_SIZE][];
+    private static final ClinvarSignificance[] SIGNIFICANCE_VALUES = new ClinvarSignificance[TABLE_SIZE];
+
+    static {
+        put("BENIGN", ClinvarSignificance.BENIGN);
+        put("LIKELY_BENIGN", ClinvarSignificance.LIKELY_BENIGN);
+        put("BENIGN/LIKELY_BENIGN", ClinvarSignificance.LIKELY_BENIGN);
+        put("PATHOGENIC", ClinvarSignificance.PATHOGENIC);
+        put("PATHOGENIC,_RISK_FACTOR", ClinvarSignificance.PATHOGENIC);
+        put("LIKELY_PATHOGENIC", ClinvarSignificance.LIKELY_PATHOGENIC);
+        put("PATHOGENIC/LIKELY_PATHOGENIC", ClinvarSignificance.LIKELY_PATHOGENIC);
+        put("UNCERTAIN_SIGNIFICANCE", ClinvarSignificance.VUS);
+        put("CONFLICTING_INTERPRETATIONS_OF_PATHOGENICITY", ClinvarSignificance.VUS);
+        put("NOT_PROVIDED", ClinvarSignificance.VUS);
+        put("RISK_FACTOR", ClinvarSignificance.RISK_FACTOR);
+        put("AFFECTS", ClinvarSignificance.AFFECTS);
+        put("ASSOCIATION", ClinvarSignificance.AFFECTS);
+        // the spellings of current ClinVar releases
+        put("CONFLICTING_CLASSIFICATIONS_OF_PATHOGENICITY", ClinvarSignificance.VUS);
+        put("NO_CLASSIFICATION_FOR_THE_SINGLE_VARIANT", ClinvarSignificance.VUS);
+        put("NO_CLASSIFICATIONS_FROM_UNFLAGGED_RECORDS", ClinvarSignificance.VUS);
+        put("PATHOGENIC,_LOW_PENETRANCE", ClinvarSignificance.PATHOGENIC);
+        put("LIKELY_PATHOGENIC,_LOW_PENETRANCE", ClinvarSignificance.LIKELY_PATHOGENIC);
+        put("PATHOGENIC/LIKELY_PATHOGENIC/PATHOGENIC,_LOW_PENETRANCE", ClinvarSignificance.LIKELY_PATHOGENIC);
+        put("ESTABLISHED_RISK_ALLELE", ClinvarSignificance.RISK_FACTOR);
+        put("LIKELY_RISK_ALLELE", ClinvarSignificance.RISK_FACTOR);
+        put("UNCERTAIN_RISK_ALLELE", ClinvarSignificance.RISK_FACTOR);
+        put("DRUG_RESPONSE", ClinvarSignificance.OTHER);
+        put("PROTECTIVE", ClinvarSignificance.OTHER);
+        put("CONFERS_SENSITIVITY", ClinvarSignificance.OTHER);
+        put("ASSOCIATION_NOT_FOUND", ClinvarSignificance.OTHER);
+        put("OTHER", ClinvarSignificance.OTHER);
+    }
+
+    /** Indexed by the ordinal of the significance. */
+    private final boolean[] accepted = new boolean[ClinvarSignificance.values().length];
+    /** If not null, only records in these regions are accepted. */
+    private final VariantRegions regions;
+    private int chrStart;
+    private int chrEnd;
+    private int pos;
+    private int refStart;
+    private int refEnd;
+    private int altStart;
+    private int altEnd;
+    private ClinvarSignificance significance;
+    /** The CLNSIG values that are not in the table (there are only a few) and the number of records with each. */
+    private byte[][] unknownValues = new byte[4][];
+    private int[] unknownCounts = new int[4];
+    private int nUnknown = 0;
+
+    /** Tokenizer that accepts records of any significance. */
+    VcfLineTokenizer() {
+        this(EnumSet.allOf(ClinvarSignificance.class), null);
+    }
+
+    /**
+     * @param significances the significances of the records that are accepted
+     * @param regions if not null, only records in these regions are accepted
+     */
+    VcfLineTokenizer(Set<ClinvarSignificance> significances, VariantRegions regions) {
+        this.regions = regions;
+        for (ClinvarSignificance significance : significances) {
+            accepted[significance.ordinal()] = true;
+        }
+    }
+
+    private static void put(String value, ClinvarSignificance significance) {
+        byte[] key = value.getBytes(StandardCharsets.US_ASCII);
+        int slot = hash(ByteBuffer.wrap(key), 0, key.length);
+        while (SIGNIFICANCE_KEYS[slot] != null) {
+            slot = (slot + 1) & (TABLE_SIZE - 1);
+        }
+        SIGNIFICANCE_KEYS[slot] = key;
+        SIGNIFICANCE_VALUES[slot] = significance;
+    }
+
+    /**
+     * Tokenize one line (without the line terminator).
+     * @param buf buffer with the line
+     * @param start offset of the first byte of the line
+     * @param end offset after the last byte of the line
+     * @return false if the line is empty, a header line or a record whose region or significance is not accepted,
+     * true if the columns were found
+     * @throws IllegalArgumentException if the line has fewer than eight columns or an invalid position
+     */
+    boolean tokenize(ByteBuffer buf, int start, int end) {
+        if (start == end || buf.get(start) == '#') {
+            return false;
+        }
+        chrStart = start;
+        chrEnd = nextTab(buf, chrStart, end);
+        int posEnd = nextTab(buf, chrEnd + 1, end);
+        pos = parsePosition(buf, chrEnd + 1, posEnd);
+        if (regions != null && ! regions.contains(buf, chrStart, chrEnd, pos)) {
+            return false;
+        }
+        int idEnd = nextTab(buf, posEnd + 1, end);
+        refStart = idEnd + 1;
+        refEnd = nextTab(buf, refStart, end);
+        altStart = refEnd + 1;
+        altEnd = nextTab(buf, altStart, end);
+        int qualEnd = nextTab(buf, altEnd + 1, end);
+        int infoStart = nextTab(buf, qualEnd + 1, end) + 1;
+        if (infoStart > end) {
+            throw new IllegalArgumentException("VCF line has fewer than 8 columns: "
+                    + decode(buf, start, end));
+        }
+        int infoEnd = indexOf(buf, infoStart, end, TAB);
+        significance = findSignificance(buf, infoStart, infoEnd);
+        return accepted[significance.ordinal()];
+    }
+
+    /** @return the bytes {@code buf[start, end)} as a String, e.g. for a contig that is not a chromosome */
+    static String decode(ByteBuffer buf, int start, int end) {
+        byte[] bytes = new byte[end - start];
+        for (int i = start; i < end; i++) {
+            bytes[i - start] = buf.get(i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    int getChrStart() {
+        return chrStart;
+    }
+
+    int getChrEnd() {
+        return chrEnd;
+    }
+
+    int getPos() {
+        return pos;
+    }
+
+    int getRefStart() {
+        return refStart;
+    }
+
+    int getRefEnd() {
+        return refEnd;
+    }
+
+    int getAltStart() {
+        return altStart;
+    }
+
+    int getAltEnd() {
+        return altEnd;
+    }
+
+    ClinvarSignificance getSignificance() {
+        return significance;
+    }
+
+    /** @return the offset of the next tab, or {@code end + 1} if there is none (so that the next column is empty) */
+    private static int nextTab(ByteBuffer buf, int from, int end) {
+        if (from > end) {
+            return end + 1;
+        }
+        int i = indexOf(buf, from, end, TAB);
+        return i == end ? end + 1 : i;
+    }
+
+    private static int indexOf(ByteBuffer buf, int from, int end, byte b) {
+        for (int i = from; i < end; i++) {
+            if (buf.get(i) == b) {
+                return i;
+            }
+        }
+        return end;
+    }
+
+    private static int parsePosition(ByteBuffer buf, int start, int end) {
+        if (start >= end || end - start > 10) {
+            throw new IllegalArgumentException("Invalid VCF position");
+        }
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = buf.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                throw new IllegalArgumentException("Invalid VCF position: "
+                        + decode(buf, start, end));
+            }
+            value = 10 * value + digit;
+        }
+        if (value > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("VCF position out of range: " + value);
+        }
+        return (int) value;
+    }
+
+    /**
+     * @return the significance of the first INFO entry that starts with CLNSIG=; BENIGN if there is none (as before)
+     */
+    private ClinvarSignificance findSignificance(ByteBuffer buf, int infoStart, int infoEnd) {
+        int entryStart = infoStart;
+        while (entryStart < infoEnd) {
+            int entryEnd = indexOf(buf, entryStart, infoEnd, (byte) ';');
+            if (startsWith(buf, entryStart, entryEnd, CLNSIG)) {
+                return lookup(buf, entryStart + CLNSIG.length, entryEnd);
+            }
+            entryStart = entryEnd + 1;
+        }
+        return ClinvarSignificance.BENIGN;
+    }
+
+    private static boolean startsWith(ByteBuffer buf, int start, int end, byte[] prefix) {
+        if (end - start < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (buf.get(start + i) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private ClinvarSignificance lookup(ByteBuffer buf, int start, int end) {
+        int slot = hash(buf, start, end);
+        while (SIGNIFICANCE_KEYS[slot] != null) {
+            if (equalsIgnoreCase(SIGNIFICANCE_KEYS[slot], buf, start, end)) {
+                return SIGNIFICANCE_VALUES[slot];
+            }
+            slot = (slot + 1) & (TABLE_SIZE - 1);
+        }
+        countUnknown(buf, start, end);
+        return ClinvarSignificance.OTHER;
+    }
+
+    /** Count a CLNSIG value that is not in the table; only the first record with each value allocates. */
+    private void countUnknown(ByteBuffer buf, int start, int end) {
+        for (int i = 0; i < nUnknown; i++) {
+            if (equals(unknownValues[i], buf, start, end)) {
+                unknownCounts[i]++;
+                return;
+            }
+        }
+        if (nUnknown == unknownValues.length) {
+            unknownValues = Arrays.copyOf(unknownValues, 2 * nUnknown);
+            unknownCounts = Arrays.copyOf(unknownCounts, 2 * nUnknown);
+        }
+        byte[] value = new byte[end - start];
+        for (int i = start; i < end; i++) {
+            value[i - start] = buf.get(i);
+        }
+        unknownValues[nUnknown] = value;
+        unknownCounts[nUnknown] = 1;
+        nUnknown++;
+    }
+
+    /** @return the CLNSIG values that were not recognized (their significance is OTHER), and the number of records */
+    Map<String, Integer> getUnknownSignificances() {
+        Map<String, Integer> unknown = new TreeMap<>();
+        for (int i = 0; i < nUnknown; i++) {
+            unknown.put(new String(unknownValues[i], StandardCharsets.UTF_8), unknownCounts[i]);
+        }
+        return unknown;
+    }
+
+    private static boolean equals(byte[] value, ByteBuffer buf, int start, int end) {
+        if (value.length != end - start) {
+            return false;
+        }
+        for (int i = 0; i < value.length; i++) {
+            if (value[i] != buf.get(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int hash(ByteBuffer buf, int start, int end) {
+        int h = 0;
+        for (int i = start; i < end; i++) {
+            h = 31 * h + toUpperCase(buf.get(i));
+        }
+        return (h ^ (h >>> 16)) & (TABLE_SIZE - 1);
+    }
+
+    private static boolean equalsIgnoreCase(byte[] key, ByteBuffer buf, int start, int end) {
+        if (key.length != end - start) {
+            return false;
+        }
+        for (int i = 0; i < key.length; i++) {
+            if (key[i] != toUpperCase(buf.get(start + i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte toUpperCase(byte b) {
+        return b >= 'a' && b <= 'z' ? (byte) (b - 32) : b;
+    }
+}
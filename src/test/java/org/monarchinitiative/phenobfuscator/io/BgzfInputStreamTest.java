@@ -0,0 +1,108 @@
+package org.monarchinitiative.phenobfuscator.io;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class BgzfInputStreamTest {
+    private static final byte[] DATA = "1\t100\t1\tA\tG\t.\t.\tCLNSIG=Pathogenic\n".getBytes(StandardCharsets.US_ASCII);
+    /** Offset of BSIZE in a block written by {@link #block(byte[])}. */
+    private static final int BSIZE = 16;
+    /** The blocks are inflated on the reading thread, and on a pool. */
+    private static final int[] THREADS = {1, 4};
+
+    /** @return a BGZF block with the data, as written by bgzip */
+    private static byte[] block(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        deflater.setInput(data);
+        deflater.finish();
+        byte[] buffer = new byte[1 << 16];
+        int compressed = deflater.deflate(buffer);
+        deflater.end();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(new byte[]{0x1f, (byte) 0x8b, 8, 4, 0, 0, 0, 0, 0, (byte) 0xff, 6, 0, 'B', 'C', 2, 0}, 0, 16);
+        int blockSize = 18 + compressed + 8;
+        writeShortLE(out, blockSize - 1);
+        out.write(buffer, 0, compressed);
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        writeIntLE(out, (int) crc.getValue());
+        writeIntLE(out, data.length);
+        return out.toByteArray();
+    }
+
+    private static void writeShortLE(ByteArrayOutputStream out, int v) {
+        out.write(v & 0xff);
+        out.write((v >>> 8) & 0xff);
+    }
+
+    private static void writeIntLE(ByteArrayOutputStream out, int v) {
+        writeShortLE(out, v & 0xffff);
+        writeShortLE(out, v >>> 16);
+    }
+
+    private static byte[] readAll(byte[] bgzf, int threads) throws IOException {
+        try (InputStream in = new BgzfInputStream(new ByteArrayInputStream(bgzf), threads)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[256];
+            int n;
+            while ((n = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    @Test
+    void readsBlocks() throws IOException {
+        byte[] block = block(DATA);
+        ByteArrayOutputStream bgzf = new ByteArrayOutputStream();
+        bgzf.write(block, 0, block.length);
+        bgzf.write(block, 0, block.length);
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.write(DATA, 0, DATA.length);
+        expected.write(DATA, 0, DATA.length);
+        for (int threads : THREADS) {
+            assertArrayEquals(expected.toByteArray(), readAll(bgzf.toByteArray(), threads));
+        }
+    }
+
+    @Test
+    void rejectsCorruptInflatedSize() {
+        byte[] block = block(DATA);
+        for (int i = block.length - 4; i < block.length; i++) {
+            block[i] = (byte) 0xff;
+        }
+        for (int threads : THREADS) {
+            assertThrows(IOException.class, () -> readAll(block, threads));
+        }
+    }
+
+    @Test
+    void rejectsHugeInflatedSize() {
+        byte[] block = block(DATA);
+        block[block.length - 2] = 0x40; // ISIZE of about 1 GB
+        for (int threads : THREADS) {
+            assertThrows(IOException.class, () -> readAll(block, threads));
+        }
+    }
+
+    @Test
+    void rejectsBlockSizeSmallerThanHeader() {
+        byte[] block = block(DATA);
+        block[BSIZE] = 10;
+        block[BSIZE + 1] = 0;
+        for (int threads : THREADS) {
+            assertThrows(IOException.class, () -> readAll(block, threads));
+        }
+    }
+}
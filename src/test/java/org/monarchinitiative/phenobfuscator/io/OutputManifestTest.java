@@ -0,0 +1,103 @@
+package org.monarchinitiative.phenobfuscator.io;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The biallelic mode writes an obfuscated phenopacket and a copy of the original; both are recorded in the manifest
+ * (the copy under the name of its directory) and must be deleted when the input is removed.
+ */
+class OutputManifestTest {
+    private static final String MODE = "BIALLELIC";
+    private static final String COPY = "BIALLELIC_NON_OBFUSCATED";
+    private static final List<String> MODES = Arrays.asList(MODE, COPY);
+
+    @TempDir
+    Path dir;
+    private Path manifestPath;
+
+    @BeforeEach
+    void setup() {
+        manifestPath = dir.resolve("manifest.tsv");
+    }
+
+    private String output(String directory, String name) throws IOException {
+        Path path = dir.resolve(directory).resolve(name);
+        Files.createDirectories(path.getParent());
+        Files.write(path, new byte[]{'{', '}'});
+        return path.toString();
+    }
+
+    /** Record both outputs of a case, as Main does for the biallelic mode. */
+    private void record(OutputManifest manifest, String input, String output, String copy) throws IOException {
+        manifest.record(MODE, input, 1L, "conf", output);
+        manifest.record(COPY, input, 1L, "original", copy);
+    }
+
+    @Test
+    void removedInputDeletesObfuscationAndCopy() throws IOException {
+        OutputManifest first = OutputManifest.load(manifestPath);
+        String output1 = output(MODE, "case1_biallelic.json");
+        String copy1 = output(COPY, "case1.json");
+        String output3 = output(MODE, "case3_biallelic.json");
+        String copy3 = output(COPY, "case3.json");
+        record(first, "case1.json", output1, copy1);
+        record(first, "case3.json", output3, copy3);
+        assertEquals(0, first.removeStale(MODES));
+        first.write();
+
+        // case3.json was deleted from the input; case1.json is unchanged
+        OutputManifest second = OutputManifest.load(manifestPath);
+        assertTrue(second.isUpToDate(MODE, "case1.json", 1L, "conf"));
+        assertTrue(second.isUpToDate(COPY, "case1.json", 1L, "original"));
+        assertEquals(2, second.removeStale(MODES));
+        second.write();
+
+        assertTrue(Files.exists(Path.of(output1)));
+        assertTrue(Files.exists(Path.of(copy1)));
+        assertFalse(Files.exists(Path.of(output3)));
+        assertFalse(Files.exists(Path.of(copy3)));
+        OutputManifest third = OutputManifest.load(manifestPath);
+        assertFalse(third.isUpToDate(COPY, "case3.json", 1L, "original"));
+    }
+
+    @Test
+    void inputThatIsNoLongerOutputLosesItsCopy() throws IOException {
+        OutputManifest first = OutputManifest.load(manifestPath);
+        String output = output(MODE, "case2_biallelic.json");
+        String copy = output(COPY, "case2.json");
+        record(first, "case2.json", output, copy);
+        first.write();
+
+        // the changed input is no longer recessive, so the biallelic mode has no output for it
+        OutputManifest second = OutputManifest.load(manifestPath);
+        assertFalse(second.isUpToDate(MODE, "case2.json", 2L, "conf"));
+        second.record(MODE, "case2.json", 2L, "conf", "");
+        second.record(COPY, "case2.json", 2L, "original", "");
+        assertFalse(Files.exists(Path.of(output)));
+        assertFalse(Files.exists(Path.of(copy)));
+    }
+
+    @Test
+    void outputsOfOtherModesAreKept() throws IOException {
+        OutputManifest first = OutputManifest.load(manifestPath);
+        String noise = output("NOISE_2", "case4.json");
+        first.record("NOISE_2", "case4.json", 1L, "conf", noise);
+        first.write();
+
+        OutputManifest second = OutputManifest.load(manifestPath);
+        assertEquals(0, second.removeStale(MODES));
+        assertTrue(Files.exists(Path.of(noise)));
+    }
+}
@@ -0,0 +1,150 @@
+package org.monarchinitiative.phenobfuscator.variant;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.monarchinitiative.phenobfuscator.io.Checksums;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * An index file is read back as the index that was written, and only if it still matches the VCF file, the
+ * significance filter and the allele trimming.
+ */
+class ClinvarIndexFileTest {
+    private static final String HEADER = "##fileformat=VCFv4.1\n#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\n";
+    private static final Set<ClinvarSignificance> ALL = EnumSet.allOf(ClinvarSignificance.class);
+    private static final Set<ClinvarSignificance> PATHOGENIC =
+            ClinvarSignificance.atLeast(ClinvarSignificance.LIKELY_PATHOGENIC);
+
+    @TempDir
+    Path dir;
+
+    private static String line(String chr, int pos, String ref, String alt, String clnsig) {
+        return chr + "\t" + pos + "\t.\t" + ref + "\t" + alt + "\t.\t.\tALLELEID=1;CLNSIG=" + clnsig + ";CLNVC=x\n";
+    }
+
+    private Path vcf(String... lines) throws IOException {
+        Path path = dir.resolve("clinvar.vcf");
+        Files.write(path, (HEADER + String.join("", lines)).getBytes(StandardCharsets.UTF_8));
+        return path;
+    }
+
+    private Path vcf() throws IOException {
+        return vcf(line("1", 100, "A", "G", "Pathogenic"),
+                line("chrX", 2000, "C", "T", "Benign"),
+                line("scaffold_1", 10, "GAT", "G", "Likely_pathogenic"),
+                line("MT", 73, "A", "G", "Uncertain_significance"),
+                line("7", 500, "AGA", "AG", "Pathogenic"),
+                line("scaffold_2", 20, "T", "C", "risk_factor"));
+    }
+
+    private static void assertSameIndex(ClinvarIndex expected, ClinvarIndex actual) {
+        assertEquals(expected.size(), actual.size());
+        assertEquals(expected.isTrimAlleles(), actual.isTrimAlleles());
+        for (Variant v : expected) {
+            assertEquals(expected.getSignificance(v.getChr(), v.getPos(), v.getRef(), v.getAlt()),
+                    actual.getSignificance(v.getChr(), v.getPos(), v.getRef(), v.getAlt()), v.toString());
+        }
+    }
+
+    @Test
+    void roundTrip() throws IOException {
+        Path vcf = vcf();
+        long checksum = Checksums.crc32(vcf);
+        long size = Files.size(vcf);
+        for (boolean trim : new boolean[]{false, true}) {
+            ClinvarIndex index = new ClinvarParser(vcf.toString(), 1, ALL, null, trim).getIndex();
+            Path indexPath = dir.resolve("clinvar" + trim + ".cvix");
+            ClinvarIndexFile.write(index, checksum, size, ALL, indexPath);
+            ClinvarIndex read = ClinvarIndexFile.read(indexPath, checksum, size, ALL, trim);
+            assertNotNull(read);
+            assertSameIndex(index, read);
+            assertEquals(Arrays.asList("scaffold_1", "scaffold_2"), read.getOtherContigNames());
+            assertEquals(ClinvarSignificance.LIKELY_PATHOGENIC, read.getSignificance("scaffold_1", 10, "GAT", "G"));
+            assertEquals(ClinvarSignificance.BENIGN, read.getSignificance("X", 2000, "C", "T"));
+            assertFalse(read.contains("scaffold_3", 10, "GAT", "G"));
+        }
+    }
+
+    @Test
+    void mismatchingIndexIsNotRead() throws IOException {
+        Path vcf = vcf();
+        long checksum = Checksums.crc32(vcf);
+        long size = Files.size(vcf);
+        Path indexPath = dir.resolve("clinvar.cvix");
+        ClinvarIndexFile.write(new ClinvarParser(vcf.toString(), 1, ALL, null, false).getIndex(), checksum, size,
+                ALL, indexPath);
+        assertNotNull(ClinvarIndexFile.read(indexPath, checksum, size, ALL, false));
+        assertNull(ClinvarIndexFile.read(indexPath, checksum + 1, size, ALL, false));
+        assertNull(ClinvarIndexFile.read(indexPath, checksum, size + 1, ALL, false));
+        assertNull(ClinvarIndexFile.read(indexPath, checksum, size, PATHOGENIC, false));
+        assertNull(ClinvarIndexFile.read(indexPath, checksum, size, ALL, true));
+    }
+
+    @Test
+    void indexIsRebuiltWhenTheVcfFileChanges() throws IOException {
+        Path vcf = vcf();
+        Path indexPath = dir.resolve("clinvar.cvix");
+        ClinvarIndex first = ClinvarIndexFile.loadOrCreate(vcf, indexPath, ALL, false, 1);
+        assertEquals(ClinvarSignificance.PATHOGENIC, first.getSignificance("1", 100, "A", "G"));
+        assertNotNull(ClinvarIndexFile.read(indexPath, Checksums.crc32(vcf), Files.size(vcf), ALL, false));
+
+        // another significance, and fewer records
+        vcf(line("1", 100, "A", "G", "Benign"),
+                line("chrX", 2000, "C", "T", "Benign"));
+        ClinvarIndex second = ClinvarIndexFile.loadOrCreate(vcf, indexPath, ALL, false, 1);
+        assertEquals(2, second.size());
+        assertEquals(ClinvarSignificance.BENIGN, second.getSignificance("1", 100, "A", "G"));
+        assertSameIndex(second, ClinvarIndexFile.read(indexPath, Checksums.crc32(vcf), Files.size(vcf), ALL, false));
+    }
+
+    @Test
+    void indexIsRebuiltWhenTheFilterOrTrimmingChanges() throws IOException {
+        Path vcf = vcf();
+        long checksum = Checksums.crc32(vcf);
+        long size = Files.size(vcf);
+        Path indexPath = dir.resolve("clinvar.cvix");
+        assertEquals(6, ClinvarIndexFile.loadOrCreate(vcf, indexPath, ALL, false, 1).size());
+
+        ClinvarIndex pathogenic = ClinvarIndexFile.loadOrCreate(vcf, indexPath, PATHOGENIC, false, 1);
+        assertEquals(3, pathogenic.size());
+        assertNull(ClinvarIndexFile.read(indexPath, checksum, size, ALL, false));
+        assertNotNull(ClinvarIndexFile.read(indexPath, checksum, size, PATHOGENIC, false));
+
+        ClinvarIndex trimmed = ClinvarIndexFile.loadOrCreate(vcf, indexPath, PATHOGENIC, true, 1);
+        assertTrue(trimmed.isTrimAlleles());
+        assertEquals(ClinvarSignificance.PATHOGENIC, trimmed.getSignificance("7", 500, "AGA", "AG"));
+        assertEquals(ClinvarSignificance.PATHOGENIC, trimmed.getSignificance("7", 501, "GA", "G"));
+        assertNull(ClinvarIndexFile.read(indexPath, checksum, size, PATHOGENIC, false));
+        assertSameIndex(trimmed, ClinvarIndexFile.read(indexPath, checksum, size, PATHOGENIC, true));
+    }
+
+    @Test
+    void truncatedIndexIsNotRead() throws IOException {
+        Path vcf = vcf();
+        long checksum = Checksums.crc32(vcf);
+        long size = Files.size(vcf);
+        Path indexPath = dir.resolve("clinvar.cvix");
+        ClinvarIndexFile.write(new ClinvarParser(vcf.toString(), 1, ALL, null, false).getIndex(), checksum, size,
+                ALL, indexPath);
+        byte[] bytes = Files.readAllBytes(indexPath);
+        // a copy of each prefix, since truncating a mapped file would make reading it crash
+        for (int length = 0; length < bytes.length; length++) {
+            Path truncated = dir.resolve("truncated" + length + ".cvix");
+            Files.write(truncated, Arrays.copyOf(bytes, length));
+            assertNull(ClinvarIndexFile.read(truncated, checksum, size, ALL, false), "length " + length);
+        }
+    }
+}
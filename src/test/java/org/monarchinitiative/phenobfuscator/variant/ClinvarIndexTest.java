@@ -0,0 +1,38 @@
+package org.monarchinitiative.phenobfuscator.variant;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+class ClinvarIndexTest {
+
+    /**
+     * Each builder numbers the contigs that are not chromosomes in the order it sees them, so the ids of the
+     * appended builder must be mapped to the ids of the first.
+     */
+    @Test
+    void addAllRemapsOtherContigs() {
+        ClinvarIndex.Builder first = new ClinvarIndex.Builder()
+                .add("scaffold_1", 10, "A", "G", ClinvarSignificance.BENIGN)
+                .add("1", 100, "A", "G", ClinvarSignificance.PATHOGENIC);
+        ClinvarIndex.Builder second = new ClinvarIndex.Builder()
+                .add("scaffold_2", 10, "A", "G", ClinvarSignificance.PATHOGENIC)
+                .add("scaffold_1", 20, "C", "T", ClinvarSignificance.LIKELY_PATHOGENIC)
+                .add("chrX", 30, "G", "A", ClinvarSignificance.VUS)
+                .add("scaffold_1", 10, "A", "G", ClinvarSignificance.PATHOGENIC);
+        for (ClinvarIndex index : Arrays.asList(first.addAll(second).build(), first.buildSorted())) {
+            assertEquals(5, index.size());
+            assertEquals(Arrays.asList("scaffold_1", "scaffold_2"), index.getOtherContigNames());
+            // the first of the duplicate records is kept
+            assertEquals(ClinvarSignificance.BENIGN, index.getSignificance("scaffold_1", 10, "A", "G"));
+            assertEquals(ClinvarSignificance.PATHOGENIC, index.getSignificance("scaffold_2", 10, "A", "G"));
+            assertEquals(ClinvarSignificance.LIKELY_PATHOGENIC, index.getSignificance("scaffold_1", 20, "C", "T"));
+            assertEquals(ClinvarSignificance.VUS, index.getSignificance("X", 30, "G", "A"));
+            assertEquals(ClinvarSignificance.PATHOGENIC, index.getSignificance("1", 100, "A", "G"));
+            assertFalse(index.contains("scaffold_2", 20, "C", "T"));
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package org.monarchinitiative.phenobfuscator.variant;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * The chunked parser must build the same index as the sequential one, whatever the chunk boundaries are.
+ */
+class ParallelVcfLoaderTest {
+    private static final String HEADER = "##fileformat=VCFv4.1\n#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\n";
+    private static final String[] CONTIGS = {"1", "chr2", "X", "NC_000007.14", "scaffold_1", "scaffold_2"};
+    private static final String[] SIGNIFICANCES = {"Benign", "Likely_benign", "Uncertain_significance",
+            "Likely_pathogenic", "Pathogenic", "drug_response"};
+    private static final String[] BASES = {"A", "C", "G", "T"};
+    /** Chunk sizes down to one byte, so that lines straddle the nominal boundaries. */
+    private static final long[] CHUNK_SIZES = {1, 7, 64, 1000, 1 << 20};
+
+    @TempDir
+    Path dir;
+
+    private static String line(String chr, int pos, String ref, String alt, String clnsig) {
+        return chr + "\t" + pos + "\t.\t" + ref + "\t" + alt + "\t.\t.\tALLELEID=1;CLNSIG=" + clnsig + ";CLNVC=x";
+    }
+
+    /**
+     * @return a VCF file with random records, some of which repeat an earlier record with another CLNSIG, with
+     * Windows line ends in places and without a line end after the last record
+     */
+    private Path vcf() throws IOException {
+        Random random = new Random(7);
+        StringBuilder sb = new StringBuilder(HEADER);
+        String[] previous = new String[200];
+        for (int i = 0; i < 200; i++) {
+            String chr = CONTIGS[random.nextInt(CONTIGS.length)];
+            int pos = 1 + random.nextInt(1000);
+            String ref = BASES[random.nextInt(4)];
+            String alt = random.nextInt(5) == 0 ? ref + BASES[random.nextInt(4)] : BASES[(random.nextInt(3) + 1 +
+                    "ACGT".indexOf(ref)) % 4];
+            if (i > 0 && random.nextInt(4) == 0) {
+                // a duplicate of an earlier record with a different significance: the first one is kept
+                String[] fields = previous[random.nextInt(i)].split("\t");
+                chr = fields[0];
+                pos = Integer.parseInt(fields[1]);
+                ref = fields[3];
+                alt = fields[4];
+            }
+            String record = line(chr, pos, ref, alt, SIGNIFICANCES[random.nextInt(SIGNIFICANCES.length)]);
+            previous[i] = record;
+            sb.append(record).append(i % 10 == 3 ? "\r\n" : "\n");
+        }
+        sb.append(line("1", 5000, "AGA", "AG", "Pathogenic"));
+        Path path = dir.resolve("clinvar.vcf");
+        Files.write(path, sb.toString().getBytes(StandardCharsets.UTF_8));
+        return path;
+    }
+
+    private static void assertSameIndex(ClinvarIndex expected, ClinvarIndex actual) {
+        assertEquals(expected.size(), actual.size());
+        for (Variant v : expected) {
+            assertEquals(expected.getSignificance(v.getChr(), v.getPos(), v.getRef(), v.getAlt()),
+                    actual.getSignificance(v.getChr(), v.getPos(), v.getRef(), v.getAlt()), v.toString());
+        }
+    }
+
+    @Test
+    void chunkedParserMatchesSequentialParser() throws IOException {
+        Path path = vcf();
+        for (Set<ClinvarSignificance> significances : Arrays.asList(
+                EnumSet.allOf(ClinvarSignificance.class),
+                ClinvarSignificance.atLeast(ClinvarSignificance.LIKELY_PATHOGENIC))) {
+            for (boolean trim : new boolean[]{false, true}) {
+                ClinvarIndex sequential = new ClinvarParser(path.toString(), 1, significances, null, trim).getIndex();
+                for (long chunkSize : CHUNK_SIZES) {
+                    for (int threads : new int[]{1, 3, 8}) {
+                        ClinvarIndex chunked = ParallelVcfLoader.load(path, threads, chunkSize, significances, null,
+                                trim).build();
+                        assertSameIndex(sequential, chunked);
+                    }
+                }
+                assertSameIndex(sequential,
+                        new ClinvarParser(path.toString(), 4, significances, null, trim).getIndex());
+            }
+        }
+    }
+
+    @Test
+    void firstOfDuplicateRecordsIsKept() throws IOException {
+        String vcf = HEADER + line("scaffold_1", 10, "A", "G", "Benign") + "\n"
+                + line("1", 100, "A", "G", "Pathogenic") + "\n"
+                + line("1", 100, "A", "G", "Benign") + "\n"
+                + line("scaffold_1", 10, "A", "G", "Pathogenic") + "\n";
+        Path path = dir.resolve("duplicates.vcf");
+        Files.write(path, vcf.getBytes(StandardCharsets.UTF_8));
+        Set<ClinvarSignificance> all = EnumSet.allOf(ClinvarSignificance.class);
+        for (long chunkSize : CHUNK_SIZES) {
+            ClinvarIndex index = ParallelVcfLoader.load(path, 4, chunkSize, all, null, false).build();
+            assertEquals(2, index.size());
+            assertEquals(ClinvarSignificance.PATHOGENIC, index.getSignificance("1", 100, "A", "G"));
+            assertEquals(ClinvarSignificance.BENIGN, index.getSignificance("scaffold_1", 10, "A", "G"));
+        }
+    }
+
+    @Test
+    void gzipFileGivesSameIndex() throws IOException {
+        Path path = vcf();
+        Path gz = dir.resolve("clinvar.vcf.gz");
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(gz))) {
+            out.write(Files.readAllBytes(path));
+        }
+        Set<ClinvarSignificance> all = EnumSet.allOf(ClinvarSignificance.class);
+        assertSameIndex(new ClinvarParser(path.toString(), 1, all, null, true).getIndex(),
+                new ClinvarParser(gz.toString(), 4, all, null, true).getIndex());
+    }
+}
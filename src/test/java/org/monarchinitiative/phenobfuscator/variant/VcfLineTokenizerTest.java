@@ -0,0 +1,46 @@
+package org.monarchinitiative.phenobfuscator.variant;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class VcfLineTokenizerTest {
+
+    private static ClinvarSignificance tokenize(VcfLineTokenizer tokenizer, String clnsig) {
+        byte[] line = ("1\t100\t1\tA\tG\t.\t.\tALLELEID=1;CLNSIG=" + clnsig + ";CLNVC=single_nucleotide_variant")
+                .getBytes(StandardCharsets.US_ASCII);
+        assertTrue(tokenizer.tokenize(ByteBuffer.wrap(line), 0, line.length));
+        return tokenizer.getSignificance();
+    }
+
+    @Test
+    void currentClinvarSpellings() {
+        VcfLineTokenizer tokenizer = new VcfLineTokenizer();
+        assertEquals(ClinvarSignificance.VUS, tokenize(tokenizer, "Conflicting_classifications_of_pathogenicity"));
+        assertEquals(ClinvarSignificance.VUS, tokenize(tokenizer, "Conflicting_interpretations_of_pathogenicity"));
+        assertEquals(ClinvarSignificance.OTHER, tokenize(tokenizer, "drug_response"));
+        assertEquals(ClinvarSignificance.RISK_FACTOR, tokenize(tokenizer, "Likely_risk_allele"));
+        assertEquals(ClinvarSignificance.PATHOGENIC, tokenize(tokenizer, "Pathogenic,_low_penetrance"));
+        assertEquals(0, tokenizer.getUnknownSignificances().size());
+    }
+
+    @Test
+    void unknownValuesAreCountedOncePerValue() {
+        VcfLineTokenizer tokenizer = new VcfLineTokenizer();
+        for (int i = 0; i < 10; i++) {
+            assertEquals(ClinvarSignificance.OTHER, tokenize(tokenizer, "made_up_" + (i % 5)));
+        }
+        assertEquals(ClinvarSignificance.BENIGN, tokenize(tokenizer, "Benign"));
+        Map<String, Integer> expected = new TreeMap<>();
+        for (int i = 0; i < 5; i++) {
+            expected.put("made_up_" + i, 2);
+        }
+        assertEquals(expected, tokenizer.getUnknownSignificances());
+    }
+}